@@ -0,0 +1,26 @@
+package com.creations.livebox.benchmarks;
+
+import java.io.File;
+
+/**
+ * File helpers shared by benchmarks.
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    static void deleteRecursively(File file) {
+        if (file == null) {
+            return;
+        }
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
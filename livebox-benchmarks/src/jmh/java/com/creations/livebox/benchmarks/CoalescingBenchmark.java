@@ -0,0 +1,140 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox.Box;
+import com.creations.livebox.Livebox;
+import com.creations.livebox.config.Config;
+import com.creations.livebox.datasources.disk.DiskLruConfig;
+import com.creations.livebox.datasources.disk.DiskPersistentConfig;
+import com.creations.livebox.datasources.fetcher.Fetcher;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.creations.serializer_gson.LiveboxGsonSerializer;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.reactivex.Observable;
+
+/**
+ * Request throughput with 8 threads asking for {@link #keys} keys, against a fetcher that takes
+ * {@link #fetchMicros} to respond. Requests for a key with a fetch in flight join it instead of
+ * fetching again.
+ *
+ * Tear down prints how many requests were served by each fetch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class CoalescingBenchmark {
+
+    private static final Type TYPE = new TypeToken<List<Bag<String>>>() {
+    }.getType();
+
+    // Distinct keys, 1 when every thread asks for the same data
+    @Param({"1", "64"})
+    public int keys;
+
+    @Param({"100"})
+    public int fetchMicros;
+
+    private final LongAdder mRequests = new LongAdder();
+    private final LongAdder mFetches = new LongAdder();
+
+    private File mDir;
+    private List<Livebox<List<Bag<String>>, List<Bag<String>>>> mBoxes;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.disable();
+        mDir = Files.createTempDirectory("livebox-coalescing").toFile();
+        Livebox.init(new Config(
+                new DiskLruConfig(new File(mDir, "lru"), 0),
+                new DiskPersistentConfig(new File(mDir, "persistent")),
+                LiveboxGsonSerializer.create(),
+                null,
+                false
+        ));
+
+        final Fetcher<List<Bag<String>>> fetcher = new SlowFetcher<>(
+                Collections.singletonList(new Bag<>("1", Collections.singletonList("one"))),
+                TimeUnit.MICROSECONDS.toNanos(fetchMicros),
+                mFetches
+        );
+        mBoxes = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            // No local sources, every request hits the fetcher
+            mBoxes.add(new Box<List<Bag<String>>, List<Bag<String>>>(TYPE)
+                    .withKey("key_" + i)
+                    .fetch(fetcher)
+                    .ignoreCache(true)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public Object request(Cursor cursor) {
+        mRequests.increment();
+        return mBoxes.get(cursor.next++ % keys).asObservable().blockingLast();
+    }
+
+    @TearDown
+    public void tearDown() {
+        final long requests = mRequests.sum();
+        final long fetches = mFetches.sum();
+        System.out.println(String.format(Locale.US, "%nkeys: %d requests: %d fetches: %d requests per fetch: %.2f",
+                keys, requests, fetches, fetches == 0 ? 0 : (double) requests / fetches));
+        BenchmarkFiles.deleteRecursively(mDir);
+    }
+
+    /**
+     * Parks the subscribing thread for a fixed time before emitting, as a network call would.
+     */
+    static final class SlowFetcher<T> implements Fetcher<T> {
+
+        private final T mData;
+        private final long mDelayNanos;
+        private final LongAdder mFetches;
+
+        SlowFetcher(T data, long delayNanos, LongAdder fetches) {
+            mData = data;
+            mDelayNanos = delayNanos;
+            mFetches = fetches;
+        }
+
+        @Override
+        public Observable<T> fetch() {
+            return Observable.fromCallable(() -> {
+                mFetches.increment();
+                LockSupport.parkNanos(mDelayNanos);
+                return mData;
+            });
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox.datasources.disk.Codec;
+import com.creations.livebox.datasources.disk.Codecs;
+import com.creations.livebox.datasources.disk.Compression;
+import com.creations.livebox.datasources.disk.EntryFormatKt;
+import com.creations.livebox_common.serializers.StreamingSerializer;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.creations.serializer_gson.LiveboxGsonSerializer;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Cost of compressing entries of {@link #payloadSize} bytes with each codec: time to write an
+ * entry and time to read and deserialize it back.
+ *
+ * Setup prints the stored size and how many entries fit in a {@link #BUDGET} byte cache, the
+ * effective capacity compared to storing entries raw.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+
+    private static final long BUDGET = 100L * 1024 * 1024;
+    private static final Type TYPE = new TypeToken<List<Bag<String>>>() {
+    }.getType();
+
+    @Param({"NONE", "DEFLATE", "GZIP", "LZ4"})
+    public String codec;
+
+    // 512B to 4MB
+    @Param({"512", "16384", "262144", "4194304"})
+    public int payloadSize;
+
+    private StreamingSerializer mSerializer;
+    private Compression mCompression;
+    private Buffer mPayload;
+    private Buffer mEntry;
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.disable();
+        mSerializer = LiveboxGsonSerializer.create();
+        mCompression = new Compression(codec(codec));
+
+        // Bags differ a little, so payloads do not compress unrealistically well
+        final List<Bag<String>> bags = new ArrayList<>();
+        for (long size = 2, i = 0; size < payloadSize; i++) {
+            final Bag<String> bag = new Bag<>("bag" + i, Arrays.asList("one", "two", "three", String.valueOf(i * 7919)));
+            final Buffer single = new Buffer();
+            mSerializer.serialize(bag, Bag.class, single);
+            size += single.size() + 1;
+            bags.add(bag);
+        }
+        mPayload = new Buffer();
+        mSerializer.serialize(bags, TYPE, mPayload);
+
+        mEntry = new Buffer();
+        EntryFormatKt.writeEntry(mEntry, mSerializer, 0, mPayload.clone(), mCompression);
+
+        final long stored = mEntry.size();
+        System.out.println(String.format(Locale.US,
+                "%n%s payload: %d stored: %d ratio: %.2f entries in %dMB: %d (raw %d)",
+                codec, mPayload.size(), stored, (double) mPayload.size() / stored, BUDGET / (1024 * 1024),
+                BUDGET / stored, BUDGET / mPayload.size()));
+    }
+
+    @Benchmark
+    public Buffer write() {
+        final Buffer entry = new Buffer();
+        EntryFormatKt.writeEntry(entry, mSerializer, 0, mPayload.clone(), mCompression);
+        return entry;
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        return mSerializer.deserialize(EntryFormatKt.readPayload(mEntry.clone(), mSerializer), TYPE);
+    }
+
+    private static Codec codec(String name) {
+        switch (name) {
+            case "DEFLATE":
+                return Codecs.DEFLATE;
+            case "GZIP":
+                return Codecs.GZIP;
+            case "LZ4":
+                return Codecs.LZ4;
+            default:
+                return Codecs.NONE;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox_common.serializers.StreamingSerializer;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.creations.livebox_common.util.OkioUtilsKt;
+import com.creations.serializer_gson.LiveboxGsonSerializer;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Time and allocations per call of {@link LiveboxGsonSerializer}, with a cached TypeAdapter and
+ * json written straight to the sink, against the previous path: Gson.fromJson on every read and
+ * json written to a String read back through a ReaderInputStream.
+ *
+ * Allocations are reported as gc.alloc.rate.norm by the gc profiler, enabled in build.gradle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GsonSerializerBenchmark {
+
+    private static final Type TYPE = new TypeToken<List<Bag<String>>>() {
+    }.getType();
+
+    // Bags in the payload, about 50 bytes each
+    @Param({"1", "20", "1000"})
+    public int bagCount;
+
+    private Gson mGson;
+    private StreamingSerializer mSerializer;
+    private List<Bag<String>> mBags;
+    private byte[] mJson;
+
+    @Setup
+    public void setup() {
+        Logger.disable();
+        mGson = new Gson();
+        mSerializer = LiveboxGsonSerializer.create(mGson);
+        mBags = new ArrayList<>();
+        for (int i = 0; i < bagCount; i++) {
+            mBags.add(new Bag<>(String.valueOf(i), Arrays.asList("one", "two", "three")));
+        }
+        mJson = mGson.toJson(mBags, TYPE).getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return mSerializer.deserialize(new Buffer().write(mJson), TYPE);
+    }
+
+    @Benchmark
+    public Object deserializeBaseline() {
+        return mGson.fromJson(new JsonReader(new InputStreamReader(new Buffer().write(mJson).inputStream())), TYPE);
+    }
+
+    @Benchmark
+    public Buffer serialize() {
+        final Buffer sink = new Buffer();
+        mSerializer.serialize(mBags, TYPE, sink);
+        return sink;
+    }
+
+    @Benchmark
+    public Buffer serializeBaseline() throws IOException {
+        final Buffer sink = new Buffer();
+        sink.readFrom(OkioUtilsKt.readerInputStreamUtf8(mGson.toJson(mBags, TYPE)));
+        return sink;
+    }
+}
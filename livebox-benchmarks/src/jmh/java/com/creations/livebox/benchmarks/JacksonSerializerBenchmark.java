@@ -0,0 +1,81 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.convert_jackson.LiveboxJacksonSerializer;
+import com.creations.livebox_common.serializers.StreamingSerializer;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Per call overhead of {@link LiveboxJacksonSerializer} on a small payload, with readers and writers
+ * cached per type, against resolving them from the {@link ObjectMapper} on every call as it used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JacksonSerializerBenchmark {
+
+    private static final Type TYPE = new TypeReference<Bag<String>>() {
+    }.getType();
+
+    private ObjectMapper mMapper;
+    private JavaType mJavaType;
+    private StreamingSerializer mSerializer;
+    private Bag<String> mBag;
+    private byte[] mJson;
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.disable();
+        mMapper = new ObjectMapper();
+        mJavaType = mMapper.getTypeFactory().constructType(TYPE);
+        mSerializer = LiveboxJacksonSerializer.create(mMapper);
+        mBag = new Bag<>("100", Arrays.asList("one", "two", "three"));
+        mJson = mMapper.writeValueAsBytes(mBag);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return mSerializer.deserialize(new Buffer().write(mJson), TYPE);
+    }
+
+    @Benchmark
+    public Object deserializeUncached() throws IOException {
+        return mMapper.readValue(new Buffer().write(mJson).inputStream(), mJavaType);
+    }
+
+    @Benchmark
+    public Buffer serialize() {
+        final Buffer sink = new Buffer();
+        mSerializer.serialize(mBag, TYPE, sink);
+        return sink;
+    }
+
+    @Benchmark
+    public Buffer serializeUncached() throws IOException {
+        final Buffer sink = new Buffer();
+        try (JsonGenerator generator = mMapper.getFactory().createGenerator(sink.outputStream())) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            mMapper.writeValue(generator, mBag);
+        }
+        return sink;
+    }
+}
@@ -0,0 +1,88 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox.validator.Journal;
+import com.creations.livebox_common.util.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal read throughput with 8 readers, alone and against a writer saving timestamps
+ * as fast as it can.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JournalConcurrentReadBenchmark {
+
+    // Power of two, so cursors wrap with a mask.
+    private static final int KEYS = 8192;
+
+    @Param({"TEXT", "BINARY"})
+    public Journal.Format format;
+
+    private File mDir;
+    private Journal mJournal;
+    private String[] mKeys;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        long timestamp = System.currentTimeMillis();
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.disable();
+        mDir = Files.createTempDirectory("journal-read").toFile();
+        mJournal = Journal.create(mDir, format);
+        mKeys = new String[KEYS];
+
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < KEYS; i++) {
+            mKeys[i] = "key_" + i;
+            mJournal.save(mKeys[i], now);
+        }
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(8)
+    public long readOnly(Cursor cursor) {
+        return mJournal.readTimestamp(mKeys[cursor.next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(8)
+    public long read(Cursor cursor) {
+        return mJournal.readTimestamp(mKeys[cursor.next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void write(Cursor cursor) {
+        mJournal.save(mKeys[cursor.next++ & (KEYS - 1)], ++cursor.timestamp);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mJournal.close();
+        BenchmarkFiles.deleteRecursively(mDir);
+    }
+}
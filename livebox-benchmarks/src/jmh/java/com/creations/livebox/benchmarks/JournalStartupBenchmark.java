@@ -0,0 +1,77 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox.validator.Journal;
+import com.creations.livebox_common.util.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to open a journal with {@link #keys} timestamps and read one of them, for each
+ * {@link Journal.Format}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JournalStartupBenchmark {
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    @Param({"10000", "100000"})
+    public int keys;
+
+    @Param({"TEXT", "BINARY"})
+    public Journal.Format format;
+
+    private File mDir;
+    private String mLastKey;
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.disable();
+        mDir = Files.createTempDirectory("journal-startup").toFile();
+
+        final Journal journal = Journal.create(mDir, DIRECT_EXECUTOR, keys, format);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < keys; i++) {
+            journal.save("key_" + i, now + i);
+        }
+        journal.close();
+        mLastKey = "key_" + (keys - 1);
+    }
+
+    @Benchmark
+    public long openAndRead() {
+        final Journal journal = Journal.create(mDir, DIRECT_EXECUTOR, keys, format);
+        try {
+            return journal.read(mLastKey).get();
+        } finally {
+            journal.close();
+        }
+    }
+
+    // Closed journals leave their mapping to the GC, release them so they don't pile up.
+    @TearDown(Level.Iteration)
+    public void releaseMappings() {
+        System.gc();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteRecursively(mDir);
+    }
+}
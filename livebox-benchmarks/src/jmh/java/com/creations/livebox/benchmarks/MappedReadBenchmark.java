@@ -0,0 +1,93 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox.datasources.disk.EntryFormatKt;
+import com.creations.livebox.datasources.disk.FileStore;
+import com.creations.livebox_common.serializers.StreamingSerializer;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.creations.serializer_gson.LiveboxGsonSerializer;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Time to read and deserialize a persistent entry of {@link #payloadSize} bytes, streamed from
+ * the file or memory mapped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MappedReadBenchmark {
+
+    private static final String KEY = "entry";
+    private static final Type TYPE = new TypeToken<List<Bag<String>>>() {
+    }.getType();
+
+    // 4KB to 50MB
+    @Param({"4096", "65536", "1048576", "10485760", "52428800"})
+    public int payloadSize;
+
+    private File mDir;
+    private FileStore mStore;
+    private StreamingSerializer mSerializer;
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.disable();
+        mDir = Files.createTempDirectory("mapped-read").toFile();
+        mStore = new FileStore(mDir);
+        mSerializer = LiveboxGsonSerializer.create();
+
+        final Bag<String> bag = new Bag<>("bag", Arrays.asList("one", "two", "three", "four"));
+        final Buffer single = new Buffer();
+        mSerializer.serialize(bag, Bag.class, single);
+
+        final List<Bag<String>> bags = new ArrayList<>();
+        for (long size = 2; size < payloadSize; size += single.size() + 1) {
+            bags.add(bag);
+        }
+
+        final Buffer payload = new Buffer();
+        mSerializer.serialize(bags, TYPE, payload);
+        final Buffer entry = new Buffer();
+        EntryFormatKt.writeEntry(entry, mSerializer, System.currentTimeMillis(), payload);
+        mStore.write(KEY, entry);
+    }
+
+    @Benchmark
+    public Object stream() throws IOException {
+        try (BufferedSource source = mStore.open(KEY)) {
+            return mSerializer.deserialize(EntryFormatKt.readPayload(source, mSerializer), TYPE);
+        }
+    }
+
+    @Benchmark
+    public Object mapped() throws IOException {
+        return mSerializer.deserialize(EntryFormatKt.readPayload(mStore.map(KEY), mSerializer), TYPE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteRecursively(mDir);
+    }
+}
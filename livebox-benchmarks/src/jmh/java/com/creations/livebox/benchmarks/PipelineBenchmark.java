@@ -0,0 +1,155 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox.Box;
+import com.creations.livebox.Livebox;
+import com.creations.livebox.config.Config;
+import com.creations.livebox.datasources.disk.DiskLruConfig;
+import com.creations.livebox.datasources.disk.DiskPersistentConfig;
+import com.creations.livebox.datasources.fetcher.Fetcher;
+import com.creations.livebox.validator.AgeValidator;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.creations.serializer_gson.LiveboxGsonSerializer;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+
+import static com.creations.livebox.datasources.factory.LiveboxDataSourceFactory.Sources.DISK_PERSISTENT;
+import static com.creations.livebox.datasources.factory.LiveboxDataSourceFactory.Sources.MEMORY_LRU;
+
+/**
+ * Latency of a request made with {@link Livebox#asObservable()}, from building the box to the
+ * last emitted item, for each path a request can take:
+ * <ul>
+ * <li>coldMiss: nothing saved, data is fetched and saved to memory and disk.</li>
+ * <li>diskHit: data read from a persistent disk source.</li>
+ * <li>memoryHit: data read from memory, disk is never read.</li>
+ * <li>refresh: data read from memory, then fetched and saved again.</li>
+ * </ul>
+ * The fetcher returns data already in memory, no network or json parsing is measured. DiskLru is
+ * not used, IgDiskCache needs a device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineBenchmark {
+
+    private static final Type TYPE = new TypeToken<List<Bag<String>>>() {
+    }.getType();
+
+    private static final String WARM_KEY = "warm_key";
+
+    // Bags in the payload, about 50 bytes each
+    @Param({"1", "100"})
+    public int bagCount;
+
+    private File mDir;
+    private Fetcher<List<Bag<String>>> mFetcher;
+    // Cold misses use a new key each time
+    private long mNextKey;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Logger.disable();
+        final List<Bag<String>> bags = new ArrayList<>();
+        for (int i = 0; i < bagCount; i++) {
+            bags.add(new Bag<>(String.valueOf(i), Arrays.asList("one", "two", "three")));
+        }
+        mFetcher = new FakeFetcher<>(bags);
+    }
+
+    // Each iteration starts with empty sources, a new memory cache is created for each config.
+    @Setup(Level.Iteration)
+    public void setupIteration() throws IOException {
+        mDir = Files.createTempDirectory("livebox-pipeline").toFile();
+        final File journalDir = new File(mDir, "journal");
+        Livebox.init(new Config(
+                new DiskLruConfig(new File(mDir, "lru"), 0),
+                new DiskPersistentConfig(new File(mDir, "persistent")),
+                LiveboxGsonSerializer.create(),
+                journalDir,
+                false
+        ));
+
+        box(WARM_KEY, false).asObservable().blockingLast();
+    }
+
+    @Benchmark
+    public Object coldMiss() {
+        return box("cold_" + mNextKey++, false).asObservable().blockingLast();
+    }
+
+    @Benchmark
+    public Object diskHit() {
+        return new Box<List<Bag<String>>, List<Bag<String>>>(TYPE)
+                .withKey(WARM_KEY)
+                .fetch(mFetcher)
+                .addSource(DISK_PERSISTENT, AgeValidator.hours(1))
+                .build()
+                .asObservable()
+                .blockingLast();
+    }
+
+    @Benchmark
+    public Object memoryHit() {
+        return box(WARM_KEY, false).asObservable().blockingLast();
+    }
+
+    @Benchmark
+    public Object refresh() {
+        return box(WARM_KEY, true).asObservable().blockingLast();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        Livebox.Companion.getJournal().close();
+        BenchmarkFiles.deleteRecursively(mDir);
+    }
+
+    private Livebox<List<Bag<String>>, List<Bag<String>>> box(String key, boolean refresh) {
+        return new Box<List<Bag<String>>, List<Bag<String>>>(TYPE)
+                .withKey(key)
+                .fetch(mFetcher)
+                .refresh(refresh)
+                .addSource(MEMORY_LRU, AgeValidator.hours(1))
+                .addSource(DISK_PERSISTENT, AgeValidator.hours(1))
+                .build();
+    }
+
+    /**
+     * Emits the same data on every fetch, with no network or parsing.
+     */
+    static final class FakeFetcher<T> implements Fetcher<T> {
+
+        private final T mData;
+
+        FakeFetcher(T data) {
+            mData = data;
+        }
+
+        @Override
+        public Observable<T> fetch() {
+            return Observable.just(mData);
+        }
+    }
+}
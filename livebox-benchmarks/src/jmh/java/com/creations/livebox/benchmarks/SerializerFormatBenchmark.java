@@ -0,0 +1,83 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.convert_jackson.LiveboxJacksonSerializer;
+import com.creations.livebox_common.serializers.StreamingSerializer;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.creations.serializer_gson.LiveboxGsonSerializer;
+import com.creations.serializer_smile.LiveboxSmileSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Read latency of each serializer for a list of {@link #bagCount} bags, as read by local sources.
+ *
+ * Setup prints the bytes each format takes on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializerFormatBenchmark {
+
+    private static final Type TYPE = new TypeToken<List<Bag<String>>>() {
+    }.getType();
+
+    @Param({"GSON", "JACKSON", "SMILE"})
+    public String format;
+
+    @Param({"10", "1000", "20000"})
+    public int bagCount;
+
+    private StreamingSerializer mSerializer;
+    private byte[] mBytes;
+
+    @Setup
+    public void setup() {
+        Logger.disable();
+        mSerializer = serializer(format);
+
+        final List<Bag<String>> bags = new ArrayList<>();
+        for (int i = 0; i < bagCount; i++) {
+            bags.add(new Bag<>(String.valueOf(i), Arrays.asList("one", "two", "three", String.valueOf(i * 31))));
+        }
+        final Buffer buffer = new Buffer();
+        mSerializer.serialize(bags, TYPE, buffer);
+        mBytes = buffer.readByteArray();
+
+        System.out.println(String.format(Locale.US, "%n%s bags: %d bytes: %d", format, bagCount, mBytes.length));
+    }
+
+    @Benchmark
+    public Object read() {
+        return mSerializer.deserialize(new Buffer().write(mBytes), TYPE);
+    }
+
+    private static StreamingSerializer serializer(String format) {
+        switch (format) {
+            case "JACKSON":
+                return LiveboxJacksonSerializer.create(new ObjectMapper());
+            case "SMILE":
+                return LiveboxSmileSerializer.create();
+            default:
+                return LiveboxGsonSerializer.create();
+        }
+    }
+}
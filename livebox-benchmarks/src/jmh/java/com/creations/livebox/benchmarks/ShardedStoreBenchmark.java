@@ -0,0 +1,85 @@
+package com.creations.livebox.benchmarks;
+
+import com.creations.livebox.datasources.disk.FileStore;
+import com.creations.livebox_common.util.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Read, write and existence check latency of a {@link FileStore} holding {@link #keyCount} entries,
+ * all in one dir or spread over {@link #fanOut} subdirs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShardedStoreBenchmark {
+
+    private static final String VALUE = "{\"id\":\"bag\",\"values\":[\"one\",\"two\",\"three\"]}";
+
+    @Param({"1000", "10000", "50000"})
+    public int keyCount;
+
+    @Param({"0", "256"})
+    public int fanOut;
+
+    private File mDir;
+    private FileStore mStore;
+
+    @Setup
+    public void setup() throws IOException {
+        Logger.disable();
+        mDir = Files.createTempDirectory("sharded-store").toFile();
+        mStore = new FileStore(mDir, fanOut, Runnable::run);
+        for (int i = 0; i < keyCount; i++) {
+            mStore.write(key(i), new Buffer().writeUtf8(VALUE));
+        }
+    }
+
+    @Benchmark
+    public String read() throws IOException {
+        try (BufferedSource source = mStore.open(randomKey())) {
+            return source.readUtf8();
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        mStore.write(randomKey(), new Buffer().writeUtf8(VALUE));
+    }
+
+    // Size of a key that is not stored, lookups that miss.
+    @Benchmark
+    public long miss() {
+        return mStore.size("missing" + ThreadLocalRandom.current().nextInt(keyCount));
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteRecursively(mDir);
+    }
+
+    private String randomKey() {
+        return key(ThreadLocalRandom.current().nextInt(keyCount));
+    }
+
+    private static String key(int i) {
+        return "key" + i;
+    }
+}
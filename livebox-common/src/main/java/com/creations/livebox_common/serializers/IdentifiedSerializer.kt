@@ -0,0 +1,20 @@
+package com.creations.livebox_common.serializers
+
+/**
+ * A [Serializer] with a stable id, saved in every entry it writes so entries are only read back
+ * by a serializer of the same format.
+ *
+ * [serializerId] must not change between app versions. Ids up to [MAX_RESERVED_ID] are reserved
+ * for the serializers shipped with Livebox.
+ */
+interface IdentifiedSerializer : Serializer {
+    val serializerId: Int
+
+    companion object {
+        const val GSON = 1
+        const val JACKSON = 2
+        const val SMILE = 3
+
+        const val MAX_RESERVED_ID = 255
+    }
+}
@@ -6,6 +6,8 @@ import java.lang.reflect.Type
 /**
  * @author Sérgio Serra
  * sergioserra99@gmail.com
+ *
+ * Serializers that can stream data also implement [StreamingSerializer].
  */
 interface Serializer {
     fun <T> serialize(input: T, type: Type): BufferedSource?
@@ -0,0 +1,55 @@
+@file:JvmName("Serializers")
+
+package com.creations.livebox_common.serializers
+
+import com.creations.livebox_common.util.ByteBufferInputStream
+import com.creations.livebox_common.util.bufferedSource
+import okio.BufferedSink
+import java.lang.reflect.Type
+import java.nio.ByteBuffer
+
+/**
+ * A [Serializer] that writes straight into a sink and parses a [ByteBuffer] in place.
+ *
+ * Kept apart from [Serializer] so existing implementations keep compiling, callers use
+ * [serializeTo] and [deserializeFrom] that fall back to [Serializer] methods.
+ */
+interface StreamingSerializer : Serializer {
+
+    /**
+     * Writes [input] straight into [sink], instead of building it whole in memory.
+     * [sink] is flushed but not closed.
+     *
+     * @return false if [input] could not be serialized.
+     */
+    fun <T> serialize(input: T, type: Type, sink: BufferedSink): Boolean
+
+    /**
+     * Reads from [buffer], usually a memory mapped file, parsing it in place.
+     */
+    fun <T> deserialize(buffer: ByteBuffer, type: Type): T?
+}
+
+/**
+ * Writes [input] into [sink], streamed when this is a [StreamingSerializer].
+ * [sink] is flushed but not closed.
+ *
+ * @return false if [input] could not be serialized.
+ */
+fun <T> Serializer.serializeTo(input: T, type: Type, sink: BufferedSink): Boolean {
+    if (this is StreamingSerializer) {
+        return serialize(input, type, sink)
+    }
+    val source = serialize(input, type) ?: return false
+    source.use { sink.writeAll(it) }
+    sink.flush()
+    return true
+}
+
+/**
+ * Reads from [buffer], in place when this is a [StreamingSerializer], otherwise through a
+ * [okio.BufferedSource].
+ */
+fun <T> Serializer.deserializeFrom(buffer: ByteBuffer, type: Type): T? =
+        if (this is StreamingSerializer) deserialize(buffer, type)
+        else deserialize(bufferedSource(ByteBufferInputStream(buffer)), type)
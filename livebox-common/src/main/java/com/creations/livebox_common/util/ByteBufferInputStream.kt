@@ -0,0 +1,36 @@
+package com.creations.livebox_common.util
+
+import java.io.InputStream
+import java.nio.ByteBuffer
+
+/**
+ * [InputStream] that reads straight from a [ByteBuffer], bytes are copied once into the array
+ * passed to [read]. Reads from a duplicate, so the position of the buffer passed is not changed.
+ */
+class ByteBufferInputStream(buffer: ByteBuffer) : InputStream() {
+
+    private val mBuffer = buffer.duplicate()
+
+    override fun read(): Int = if (mBuffer.hasRemaining()) mBuffer.get().toInt() and 0xff else EOF
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) {
+            return 0
+        }
+        if (!mBuffer.hasRemaining()) {
+            return EOF
+        }
+
+        val count = Math.min(len, mBuffer.remaining())
+        mBuffer.get(b, off, count)
+        return count
+    }
+
+    override fun skip(n: Long): Long {
+        val count = Math.max(0, Math.min(n, mBuffer.remaining().toLong())).toInt()
+        mBuffer.position(mBuffer.position() + count)
+        return count.toLong()
+    }
+
+    override fun available(): Int = mBuffer.remaining()
+}
@@ -7,10 +7,12 @@ import com.creations.livebox.datasources.factory.LiveboxDataSourceFactory
 import com.creations.livebox.datasources.fetcher.Fetcher
 import com.creations.livebox.validator.AgeValidator
 import com.creations.livebox.validator.Validator
+import com.creations.livebox_common.serializers.Serializer
 import io.reactivex.Observable
 import io.reactivex.annotations.NonNull
 import java.lang.reflect.Type
 import java.util.*
+import java.util.concurrent.TimeUnit
 
 /**
  * @author Sérgio Serra
@@ -33,6 +35,15 @@ class Box<I, O>(private val mType: Type) {
     // Indicates the strategy to use when retrying defaults to INTERVAL
     private var mRetryStrategy = RetryStrategy.INTERVAL
 
+    // Indicates if data found in a local source should be copied to the sources before it
+    private var mPromoteLocalHits = false
+
+    // How long, in milliseconds, expired data can still be returned while refreshing in background
+    private var mStaleWindow = 0L
+
+    // Indicates if fetched data is saved to local sources in background
+    private var mWriteBehind = false
+
     // Indicates if an age validator was found
     private var mIsUsingAgeValidator = false
 
@@ -53,8 +64,10 @@ class Box<I, O>(private val mType: Type) {
     // We iterate the list and ask each DataSourceFactory instance for an instance of LocalDataSource
     private val mDataSourceFactoryList = ArrayList<DataSourceFactory<I>>()
 
+    private val mLiveboxFactory = LiveboxDataSourceFactory<I>(Livebox.config.serializer, mType)
+
     init {
-        mDataSourceFactoryList.add(LiveboxDataSourceFactory(Livebox.config.serializer, mType))
+        mDataSourceFactoryList.add(mLiveboxFactory)
     }
 
     enum class RetryStrategy {
@@ -79,6 +92,37 @@ class Box<I, O>(private val mType: Type) {
         mRefresh = refresh
     }
 
+    /**
+     * When data is found in a local source, copy it in background to every source added before it.
+     * Sources should be added from the fastest to the slowest, so repeated reads are served
+     * by the fastest source.
+     */
+    fun promoteLocalHits(promote: Boolean): Box<I, O> = apply {
+        mPromoteLocalHits = promote
+    }
+
+    /**
+     * Keeps serving local data expired by an [AgeValidator] for up to [window] after it expires.
+     *
+     * Stale data is returned right away and the Observable completes, a single refresh per key
+     * is then made in background to update local sources.
+     */
+    @JvmOverloads
+    fun staleWhileRevalidate(window: Long, unit: TimeUnit = TimeUnit.MILLISECONDS): Box<I, O> = apply {
+        mStaleWindow = Math.max(0, unit.toMillis(window))
+    }
+
+    /**
+     * Emits fetched data without waiting for it to be saved in local sources.
+     *
+     * Data is saved in background, writes for the same key are coalesced so only the newest
+     * data is written. Until then, reads for the same key return the data waiting to be written.
+     * @see Livebox.awaitPendingWrites
+     */
+    fun writeBehind(writeBehind: Boolean): Box<I, O> = apply {
+        mWriteBehind = writeBehind
+    }
+
     fun fetch(@NonNull source: () -> Observable<I>): Box<I, O> = apply {
         fetch(object : Fetcher<I> {
             override fun fetch(): Observable<I> = source()
@@ -120,6 +164,42 @@ class Box<I, O>(private val mType: Type) {
         }
     }
 
+    fun addSource(dataSourceId: Int, @NonNull partition: String, @NonNull validator: (key: String, I) -> Boolean): Box<I, O> = apply {
+        addSource(dataSourceId, partition, object : Validator<I> {
+            override fun validate(key: String, item: I): Boolean = validator(key, item)
+        })
+    }
+
+    /**
+     * Adds a source that keeps its entries in [partition], so they are evicted only by entries
+     * of the same partition. Partitions are set in [com.creations.livebox.config.Config.diskLruPartitions].
+     *
+     * @throws IllegalArgumentException if the source has no partitions or there's no such partition.
+     */
+    fun <T> addSource(dataSourceId: Int, @NonNull partition: String, @NonNull validator: Validator<T>): Box<I, O> = apply {
+        val localDataSource = mLiveboxFactory.get<T>(dataSourceId, partition)
+                ?: throw IllegalArgumentException("Source has no partitions: $dataSourceId")
+        addSource(localDataSource, validator)
+    }
+
+    fun addSource(dataSourceId: Int, @NonNull serializer: Serializer, @NonNull validator: (key: String, I) -> Boolean): Box<I, O> = apply {
+        addSource(dataSourceId, serializer, object : Validator<I> {
+            override fun validate(key: String, item: I): Boolean = validator(key, item)
+        })
+    }
+
+    /**
+     * Adds a source that stores data with [serializer] instead of [com.creations.livebox.config.Config.serializer],
+     * e.g. a binary format for local caches while fetched data stays json.
+     *
+     * @throws IllegalArgumentException if the source does not serialize data.
+     */
+    fun <T> addSource(dataSourceId: Int, @NonNull serializer: Serializer, @NonNull validator: Validator<T>): Box<I, O> = apply {
+        val localDataSource = mLiveboxFactory.get<T>(dataSourceId, serializer)
+                ?: throw IllegalArgumentException("Source does not serialize data: $dataSourceId")
+        addSource(localDataSource, validator)
+    }
+
     fun <T> addConverter(@NonNull converter: (T) -> O): Box<I, O> = apply {
         addConverter(mType, object : Converter<T, O> {
             override fun convert(o: T): O = converter(o)
@@ -136,7 +216,8 @@ class Box<I, O>(private val mType: Type) {
 
     fun build(): Livebox<I, O> = Livebox(
             mKey, mType, mRefresh, mIgnoreCache, mRetryOnFailure, mRetryStrategy,
-            mIsUsingAgeValidator, mFetcher, mLocalSources, mValidators, mConvertersMap
+            mPromoteLocalHits, mStaleWindow, mWriteBehind, mIsUsingAgeValidator,
+            mFetcher, mLocalSources, mValidators, mConvertersMap
     )
 
 }
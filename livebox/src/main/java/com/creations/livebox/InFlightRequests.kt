@@ -0,0 +1,53 @@
+package com.creations.livebox
+
+import com.creations.livebox_common.util.Logger
+import io.reactivex.Observable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Keeps a record of in-flight requests, so concurrent subscribers for the same key share
+ * a single upstream subscription.
+ *
+ * Requests are registered with an atomic [ConcurrentMap.putIfAbsent] when the first subscriber
+ * subscribes and are removed when the upstream completes, errors or is disposed.
+ */
+internal class InFlightRequests {
+
+    private val mRequests: ConcurrentMap<BoxKey, SharedRequest<*>> = ConcurrentHashMap()
+
+    private class SharedRequest<T>(
+            key: BoxKey,
+            upstream: Observable<T>,
+            requests: ConcurrentMap<BoxKey, SharedRequest<*>>
+    ) {
+        // Remove only this request, a newer one may already be registered for the same key.
+        val observable: Observable<T> = upstream
+                .doFinally {
+                    Logger.d(TAG, "Remove from inFlightRequests with key %s", key)
+                    requests.remove(key, this)
+                }
+                .share()
+    }
+
+    /**
+     * Returns an Observable that when subscribed joins the in-flight request for [key]
+     * if there is one, otherwise subscribes to [upstream] and shares it.
+     */
+    fun <T> share(key: BoxKey, upstream: Observable<T>): Observable<T> = Observable.defer {
+        @Suppress("UNCHECKED_CAST")
+        var request = mRequests[key] as SharedRequest<T>?
+        if (request != null) {
+            Logger.d(TAG, "We have a in-flight request for key: %s", key)
+        } else {
+            val candidate = SharedRequest(key, upstream, mRequests)
+            @Suppress("UNCHECKED_CAST")
+            request = mRequests.putIfAbsent(key, candidate) as SharedRequest<T>? ?: candidate
+        }
+        request.observable
+    }
+
+    companion object {
+        private const val TAG = "InFlightRequests"
+    }
+}
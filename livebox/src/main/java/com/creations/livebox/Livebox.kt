@@ -4,24 +4,39 @@ import com.creations.livebox.Box.RetryStrategy
 import com.creations.livebox.adapters.AndroidAdapter
 import com.creations.livebox.config.Config
 import com.creations.livebox.converters.Converter
+import com.creations.livebox.datasources.EntryMetadata
+import com.creations.livebox.datasources.EntryMetadata.Companion.UNKNOWN
 import com.creations.livebox.datasources.LocalDataSource
+import com.creations.livebox.datasources.MetadataReader
+import com.creations.livebox.datasources.SerializedDataSource
+import com.creations.livebox.datasources.TimestampedDataSource
 import com.creations.livebox.datasources.disk.DiskLruDataSource
 import com.creations.livebox.datasources.disk.DiskPersistentDataSource
 import com.creations.livebox.datasources.fetcher.Fetcher
+import com.creations.livebox.datasources.fetcher.RawFetcher
+import com.creations.livebox.datasources.memory.MemoryLruDataSource
 import com.creations.livebox.rx.Transformers
 import com.creations.livebox.util.Optional
 import com.creations.livebox.util.isNull
+import com.creations.livebox.validator.AgeValidator
 import com.creations.livebox.validator.Journal
+import com.creations.livebox.validator.MetadataValidator
 import com.creations.livebox.validator.Validator
 import com.creations.livebox_common.adapter.ObservableAdapter
+import com.creations.livebox_common.serializers.Serializer
+import com.creations.livebox_common.serializers.serializeTo
 import com.creations.livebox_common.util.Logger
+import io.reactivex.Completable
 import io.reactivex.Observable
-import io.reactivex.ObservableTransformer
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.annotations.NonNull
 import io.reactivex.schedulers.Schedulers
+import io.reactivex.subjects.CompletableSubject
+import okio.Buffer
+import okio.BufferedSource
 import java.lang.reflect.Type
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
 import java.util.regex.Pattern
 
 /**
@@ -42,6 +57,13 @@ class Livebox<I, O> internal constructor(
         private val mRetryOnFailure: Boolean,
         // Indicates the strategy to use when retrying defaults to INTERVAL
         private val mRetryStrategy: RetryStrategy,
+        // Indicates if data found in a local source should be copied to the sources before it
+        private val mPromoteLocalHits: Boolean,
+        // How long, in milliseconds, data expired by an AgeValidator can still be returned
+        // while it is refreshed in background. Zero when disabled.
+        private val mStaleWindow: Long,
+        // Indicates if fetched data is saved to local sources in background
+        private val mWriteBehind: Boolean,
         // If an age validator was found
         private val mIsUsingAgeValidator: Boolean,
         // Remote data source
@@ -55,20 +77,6 @@ class Livebox<I, O> internal constructor(
         private val mConvertersMap: Map<Type, Converter<*, O>>
 ) {
 
-    // Transformer that adds share functionality to an observable
-    private val withShare = ObservableTransformer<O, O> { upstream ->
-        Logger.d(TAG, "Compose with share")
-        val observable = upstream
-                .doOnComplete {
-                    Logger.d(TAG, "Remove from inFlightRequests with key %s", mKey)
-                    inFlightRequests.remove(mKey)
-                }
-                .share()
-
-        inFlightRequests.putIfAbsent(mKey, observable)
-        observable
-    }
-
     init {
         if (!mInit) {
             throw IllegalStateException("You must call Livebox.init() before creating any instance")
@@ -83,35 +91,128 @@ class Livebox<I, O> internal constructor(
      * if is still valid, if it is use it. Otherwise if no valid local data is found return an
      * empty [Optional.empty].
      *
+     * Sources implementing [MetadataReader] are checked with [MetadataValidator] before reading
+     * the entry, so entries that are not valid are never deserialized.
+     *
+     * When [mStaleWindow] is set, data expired by an [AgeValidator] for less than the window is kept
+     * and, if no valid data is found, returned flagged as stale.
+     *
      * @return an Observable that will emit an [Optional] that may or may not contain data.
      */
     private fun readFromLocalSources(): Optional<Payload<Any>>? {
         Logger.d(TAG, "Try to read from local data sources")
 
-        for (source in mLocalSources) {
+        // Data still waiting to be written is newer than anything in local sources.
+        if (mWriteBehind) {
+            val pending = writeBehindQueue.pending(mKey.key)
+            if (pending != null && pending.type == mType) {
+                Logger.d(TAG, "---> Data pending to be written found")
+                return Optional.of(Payload(mType, pending.data))
+            }
+        }
+
+        var stalePayload: Payload<Any>? = null
+
+        for ((index, source) in mLocalSources.withIndex()) {
             Logger.d(TAG, "Hit source %s", source)
 
+            @Suppress("UNCHECKED_CAST")
+            val validator: Validator<Any> = mValidators[source] as Validator<Any>? ?: continue
+
+            // Check metadata first, so invalid entries are not deserialized.
+            var metadata: EntryMetadata? = null
+            var metadataValid: Boolean? = null
+            if (source is MetadataReader) {
+                // If there's no entry continue
+                metadata = source.readMetadata(mKey.key) ?: continue
+                if (validator is MetadataValidator) {
+                    metadataValid = validator.validateMetadata(mKey.key, metadata)
+                }
+            }
+
+            if (metadataValid == false && !isWithinStaleWindow(validator, metadata)) {
+                Logger.d(TAG, "Metadata from source %s is not valid. Clear it", source)
+                source.clear(mKey.key)
+                continue
+            }
+
             // If data is null continue
             val data = source.read(mKey.key) ?: continue
 
-            @Suppress("UNCHECKED_CAST")
-            val validator: Validator<Any> = mValidators[source] as Validator<Any>? ?: continue
+            // Validate data, unless metadata was already validated
+            if (!(metadataValid ?: validator.validate(mKey.key, data))) {
+                if (isWithinStaleWindow(validator, metadata)) {
+                    Logger.d(TAG, "Data from source %s is stale but within stale window", source)
+                    if (stalePayload == null) stalePayload = Payload(source.type, data, true)
+                    continue
+                }
 
-            // Validate data
-            if (!validator.validate(mKey.key, data)) {
                 Logger.d(TAG, "Data from source %s is not valid. Clear it", source)
                 source.clear(mKey.key)
                 continue
             }
 
             Logger.d(TAG, "---> Data from source $source is valid")
+            if (mPromoteLocalHits && index > 0) {
+                promoteLocalHit(data, source, index, metadata)
+            }
             return Optional.of(Payload(source.type, data))
         }
 
+        if (stalePayload != null) {
+            Logger.d(TAG, "---> Only stale data found")
+            return Optional.of(stalePayload)
+        }
+
         Logger.d(TAG, "---> No valid data found")
         return Optional.empty()
     }
 
+    private fun isWithinStaleWindow(validator: Validator<*>, metadata: EntryMetadata?): Boolean =
+            mStaleWindow > 0 && validator is AgeValidator<*>
+                    && validator.isWithinStaleWindow(mKey.key, mStaleWindow, metadata)
+
+    /**
+     * Fetches data in background and saves it to local sources.
+     * Background refreshes are shared, so only one is running for each key at any time.
+     */
+    private fun revalidateInBackground() {
+        Logger.d(TAG, "Revalidate in background key: %s", mKey)
+        backgroundRefreshes.share(mKey, fetch(true))
+                .subscribeOn(Schedulers.io())
+                .subscribe(
+                        { Logger.d(TAG, "Background refresh done for key: %s", mKey) },
+                        { Logger.e(TAG, "Background refresh failed for key: $mKey", it) }
+                )
+    }
+
+    /**
+     * Copies data found in [mLocalSources] at [index] to every source before it.
+     *
+     * Runs in background on [Schedulers.io] so the subscriber does not wait for it.
+     * Only data with the same type as fetched data can be saved, otherwise nothing is done.
+     * Copies keep the timestamp in [metadata] when it is known, so they expire with the original.
+     */
+    private fun promoteLocalHit(data: Any, source: LocalDataSource<I, *>, index: Int, metadata: EntryMetadata?) {
+        if (source.type != mType) {
+            Logger.d(TAG, "Cannot promote data from source %s with type %s", source, source.type)
+            return
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        val input = data as I
+        val targets = mLocalSources.subList(0, index)
+        val timestamp = metadata?.timestamp?.takeIf { it != UNKNOWN } ?: System.currentTimeMillis()
+        Schedulers.io().scheduleDirect {
+            try {
+                Logger.d(TAG, "Promote data from source %s to %s", source, targets)
+                saveToSources(targets, input, null, timestamp)
+            } catch (e: Exception) {
+                Logger.e(TAG, "Failed to promote data to sources $targets", e)
+            }
+        }
+    }
+
     @Throws(Exception::class)
     private fun returnLocalData(localData: Any, type: Type): Observable<O> {
         Logger.d(TAG, "Return local data: %s", localData)
@@ -121,36 +222,118 @@ class Livebox<I, O> internal constructor(
     /**
      * Fetch data using [mFetcher].
      *
+     * When [mFetcher] is a [RawFetcher] and data must be saved, fetched bytes are decoded once
+     * and saved as they are in the sources using the same serializer.
+     *
      * @param saveToLocalSources determines if data must be saved to local sources.
      * @return a defer Observable that will emit items when subscribed
      */
     private fun fetch(saveToLocalSources: Boolean): Observable<O> {
-        var obs = Observable.defer<I> { mFetcher.fetch() }
-
-        if (saveToLocalSources) obs = obs.doOnNext { passFetchedDataToLocalSources(it) }
+        @Suppress("UNCHECKED_CAST")
+        val rawFetcher = mFetcher as? RawFetcher<I>
+
+        val obs = when {
+            !saveToLocalSources -> Observable.defer<I> { mFetcher.fetch() }
+            rawFetcher != null -> Observable.defer { rawFetcher.fetchRaw() }
+                    .map { source -> decode(rawFetcher.serializer, source) }
+                    .doOnNext { saveFetchedData(it.data, it) }
+                    .map { it.data }
+            else -> Observable.defer<I> { mFetcher.fetch() }
+                    .doOnNext { saveFetchedData(it, null) }
+        }
 
         return obs
                 .map { i -> convert(i, mType) }
                 .compose(Transformers.withRetry(mRetryOnFailure, mRetryStrategy))
     }
 
+    // Keeps the fetched bytes, data is deserialized from a copy sharing the same segments.
+    private fun decode(serializer: Serializer, source: BufferedSource): RawData<I> {
+        val bytes = source.use { Buffer().apply { writeAll(it) } }
+        val data = serializer.deserialize<I>(bytes.clone(), mType)
+                ?: throw IllegalStateException("Fetched data could not be deserialized for key: $mKey")
+        return RawData(data, serializer, bytes)
+    }
+
+    private fun saveFetchedData(data: I, raw: RawData<I>?) {
+        if (mWriteBehind) writeBehind(data, raw) else passFetchedDataToLocalSources(data, raw)
+    }
+
     /**
      * Passes data fetched when calling [fetch] to local sources.
      * @param data the data received from {[mFetcher]}
+     * @param raw the bytes [data] was decoded from, if available
      */
-    private fun passFetchedDataToLocalSources(data: I) {
+    private fun passFetchedDataToLocalSources(data: I, raw: RawData<I>?) {
+        val now = System.currentTimeMillis()
         if (mIsUsingAgeValidator) {
             Logger.d(TAG, "Save in journal for key: $mKey")
-            journal?.save(mKey.key, System.currentTimeMillis())
+            journal?.save(mKey.key, now)
         }
 
         Logger.d(TAG, "Pass fresh data to local sources")
-        for (localSource in mLocalSources) {
+        saveToSources(mLocalSources, data, raw, now)
+    }
+
+    /**
+     * Passes data fetched to local sources in background using [writeBehindQueue].
+     */
+    private fun writeBehind(data: I, raw: RawData<I>?) {
+        val pendingData: Any = data ?: return
+        Logger.d(TAG, "Enqueue fresh data to be saved for key: $mKey")
+        writeBehindQueue.enqueue(mKey.key, WriteBehindQueue.PendingWrite(mType, pendingData) {
+            passFetchedDataToLocalSources(data, raw)
+        })
+    }
+
+    /**
+     * Saves [data] in each one of [sources].
+     *
+     * Data is serialized only once for all [SerializedDataSource]s sharing the same serializer and
+     * type, each one of them receives a copy of the buffer sharing the same segments.
+     * If [raw] is passed, sources using its serializer receive the fetched bytes instead.
+     * Sources whose serializer fails are skipped, it is not run again for each one of them.
+     * Sources keeping entry timestamps are passed [timestamp] as the time data was fetched.
+     */
+    private fun saveToSources(sources: List<LocalDataSource<I, *>>, data: I, raw: RawData<I>?, timestamp: Long) {
+        val serialized = HashMap<Pair<Serializer, Type>, Buffer?>()
+        if (raw != null) {
+            serialized[Pair(raw.serializer, mType)] = raw.bytes
+        }
+
+        for (localSource in sources) {
             Logger.d(TAG, "Saving fresh data in: $localSource")
+
+            if (localSource is SerializedDataSource) {
+                val serializedKey = Pair(localSource.serializer, localSource.type)
+                if (!serialized.containsKey(serializedKey)) {
+                    serialized[serializedKey] = serialize(data, localSource.serializer, localSource.type)
+                }
+
+                val buffer = serialized[serializedKey]
+                if (buffer == null) {
+                    Logger.e(TAG, "Cannot serialize data, skip saving in: $localSource")
+                    continue
+                }
+                localSource.saveSerialized(mKey.key, buffer.clone(), timestamp)
+                continue
+            }
+
+            if (localSource is TimestampedDataSource<*>) {
+                @Suppress("UNCHECKED_CAST")
+                (localSource as TimestampedDataSource<I>).save(mKey.key, data, timestamp)
+                continue
+            }
+
             localSource.save(mKey.key, data)
         }
     }
 
+    private fun serialize(data: I, serializer: Serializer, type: Type): Buffer? {
+        val buffer = Buffer()
+        return if (serializer.serializeTo(data, type, buffer)) buffer else null
+    }
+
     @Suppress("UNCHECKED_CAST")
     @Throws(Exception::class)
     private fun <T> convert(data: T, type: Type): O {
@@ -170,21 +353,22 @@ class Livebox<I, O> internal constructor(
         return data as O
     }
 
+    /**
+     * Returns an Observable for this request, when Livebox was initialized with
+     * [Livebox.initAsync] it waits until Livebox is ready.
+     */
     fun asObservable(): Observable<O> {
-        Logger.d(TAG, "Start request for key: %s", mKey)
+        val signal = mReady
+        return if (signal.hasComplete()) request() else signal.andThen(request())
+    }
 
-        // Check if we have a request ongoing.
-        // If we do return the Observable so the caller can subscribe to it.
-        if (inFlightRequests[mKey] != null) {
-            Logger.d(TAG, "We have a in-flight request for key: %s", mKey)
-            @Suppress("UNCHECKED_CAST")
-            return inFlightRequests[mKey] as Observable<O>
-        }
+    private fun request(): Observable<O> {
+        Logger.d(TAG, "Start request for key: %s", mKey)
 
         // If ignore disk cache is true always hit remote data source
         if (mIgnoreDiskCache) {
             Logger.d(TAG, "Ignore disk cache, hit remote data source")
-            return fetch(false).compose(withShare)
+            return inFlightRequests.share(mKey, fetch(false))
         }
 
         // Get data from local source.
@@ -201,6 +385,13 @@ class Livebox<I, O> internal constructor(
                                 .flatMap { fetch(true) }
                     }
 
+                    // Local data is stale but still usable, return it and refresh in background.
+                    if (payload.get().stale) {
+                        Logger.d(TAG, "Local data is stale, return it and hit remote data source in background")
+                        revalidateInBackground()
+                        return@flatMap returnLocalData(payload.get().data, payload.get().type)
+                    }
+
                     // At this point we know we have valid local data,
                     // if the user does not want to refresh return, otherwise return a Observable
                     // that emits local data, fetches the latest data from remote source and saves it.
@@ -218,8 +409,9 @@ class Livebox<I, O> internal constructor(
                 }
 
         // Using share to avoid multiple requests to be executed.
+        // If we have a request ongoing for the same key when subscribing, join it.
         // #see https://stackoverflow.com/questions/35951942/single-observable-with-multiple-subscribers/35952390#35952390
-        return retObservable.compose(withShare)
+        return inFlightRequests.share(mKey, retObservable)
     }
 
     /**
@@ -243,23 +435,120 @@ class Livebox<I, O> internal constructor(
         const val TAG = "Livebox"
 
         // Keeps a record of in-flight requests.
-        private val inFlightRequests = ConcurrentHashMap<BoxKey, Observable<*>>()
+        private val inFlightRequests = InFlightRequests()
+
+        // Keeps a record of background refreshes started for stale data.
+        private val backgroundRefreshes = InFlightRequests()
+
+        // Saves fetched data to local sources in background.
+        private val writeBehindQueue = WriteBehindQueue(WriteBehindQueue.createDiskExecutor())
+
+        @Volatile
+        private var mJournal: Journal? = null
 
         // Journal that keeps a log of requests timestamps
-        var journal: Journal? = null
+        var journal: Journal?
             get() {
                 if (!mInit) {
                     throw IllegalStateException("Livebox.init() was not called")
                 }
-                return field
+                return mJournal
+            }
+            set(value) {
+                mJournal = value
             }
 
         lateinit var config: Config
 
         private var mInit = false
 
+        // Completes once Livebox is ready to serve requests, requests wait on it.
+        @Volatile
+        private var mReady: CompletableSubject = completed()
+
+        /**
+         * Time spent on each init phase, null until Livebox is ready.
+         */
+        @JvmStatic
+        @Volatile
+        var startupMetrics: StartupMetrics? = null
+            private set
+
+        /**
+         * Blocks until all fetched data waiting to be saved in background is saved.
+         * Useful on tests and before shutting down.
+         *
+         * @return true if all data was saved before [timeout] elapsed.
+         */
+        @JvmStatic
+        fun awaitPendingWrites(timeout: Long, unit: TimeUnit): Boolean =
+                writeBehindQueue.awaitIdle(timeout, unit)
+
+        /**
+         * Inits Livebox on the calling thread, opening the journal.
+         */
         @JvmStatic
         fun init(liveboxConfig: Config) {
+            val start = System.nanoTime()
+            configure(liveboxConfig)
+
+            val journalNanos = measureNanos { openJournal(mJournal) }
+            val elapsed = System.nanoTime() - start
+            mReady = completed()
+            onReady(StartupMetrics(elapsed, journalNanos, 0, elapsed))
+        }
+
+        /**
+         * Inits Livebox without blocking the calling thread, usually the main thread on
+         * Application.onCreate. Journal is opened and the disk cache size is computed on [executor],
+         * requests made meanwhile wait until it is done.
+         *
+         * @return a Completable that completes when Livebox is ready.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun initAsync(
+                liveboxConfig: Config,
+                executor: Executor = Executor { Schedulers.io().scheduleDirect(it) }
+        ): Completable {
+            val start = System.nanoTime()
+            val signal = CompletableSubject.create()
+            mReady = signal
+            // Closed once the new journal is installed
+            val previousJournal = mJournal
+            mJournal = null
+            configure(liveboxConfig)
+            val callerThreadNanos = System.nanoTime() - start
+
+            executor.execute {
+                try {
+                    val journalNanos = measureNanos { openJournal(previousJournal) }
+                    val diskCacheSizeNanos = measureNanos {
+                        liveboxConfig.diskLruConfig.cacheSize
+                        liveboxConfig.diskLruPartitions.values.forEach { it.cacheSize }
+                    }
+                    onReady(StartupMetrics(
+                            callerThreadNanos, journalNanos, diskCacheSizeNanos, System.nanoTime() - start
+                    ))
+                } catch (e: Exception) {
+                    // Requests can still be made, without the journal
+                    Logger.e(TAG, "Failed to init in background", e)
+                } finally {
+                    // Already closed unless opening the new journal failed
+                    previousJournal?.close()
+                    signal.onComplete()
+                }
+            }
+            return signal.hide()
+        }
+
+        /**
+         * @return a Completable that completes when Livebox is ready to serve requests.
+         */
+        @JvmStatic
+        fun ready(): Completable = mReady.hide()
+
+        private fun configure(liveboxConfig: Config) {
             mInit = true
             config = liveboxConfig
 
@@ -273,18 +562,41 @@ class Livebox<I, O> internal constructor(
                 throw IllegalArgumentException("Serializer cannot be null")
             }
 
+            MemoryLruDataSource.config = config.memoryLruConfig
             DiskPersistentDataSource.config = config.persistentConfig
             DiskLruDataSource.config = config.diskLruConfig
+            DiskLruDataSource.partitions = config.diskLruPartitions
+        }
 
-            if (config.journalDir != null) {
-                journal = Journal.create(config.journalDir)
-            }
+        // Pending updates of the previous journal are written before the new one reads the file.
+        // It is closed once the new one is installed, requests still holding it read nothing.
+        private fun openJournal(previous: Journal?) {
+            previous?.flush()
+            val journalDir = config.journalDir
+            mJournal = if (journalDir != null) Journal.create(journalDir, config.journalFormat) else null
+            previous?.close()
+        }
+
+        private fun onReady(metrics: StartupMetrics) {
+            startupMetrics = metrics
+            Logger.d(TAG, "Ready: %s", metrics)
+        }
+
+        private fun completed(): CompletableSubject = CompletableSubject.create().apply { onComplete() }
+
+        private inline fun measureNanos(block: () -> Unit): Long {
+            val start = System.nanoTime()
+            block()
+            return System.nanoTime() - start
         }
     }
 
 }
 
-private data class Payload<T>(val type: Type, val data: T)
+private data class Payload<T>(val type: Type, val data: T, val stale: Boolean = false)
+
+// Fetched data along with the bytes it was decoded from.
+private class RawData<T>(val data: T, val serializer: Serializer, val bytes: Buffer)
 
 // A Key that uses a single string as identifier
 // Key must match the regex [a-z0-9_-]{1,120}.
@@ -0,0 +1,28 @@
+package com.creations.livebox
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Time spent, in nanoseconds, on each phase of [Livebox.init] or [Livebox.initAsync].
+ * Phases that were not run at init are zero.
+ */
+data class StartupMetrics(
+        // Time the thread calling init was blocked
+        val callerThreadNanos: Long,
+        // Time to open the journal, includes parsing it when using the text format
+        val journalNanos: Long,
+        // Time to compute the disk LRU cache size
+        val diskCacheSizeNanos: Long,
+        // Time from calling init until Livebox was ready to serve requests
+        val readyNanos: Long
+) {
+    override fun toString(): String =
+            "StartupMetrics{" +
+                    "CallerThread=" + millis(callerThreadNanos) + "ms" +
+                    ", Journal=" + millis(journalNanos) + "ms" +
+                    ", DiskCacheSize=" + millis(diskCacheSizeNanos) + "ms" +
+                    ", Ready=" + millis(readyNanos) + "ms" +
+                    '}'
+
+    private fun millis(nanos: Long): Double = nanos / TimeUnit.MILLISECONDS.toNanos(1).toDouble()
+}
@@ -0,0 +1,131 @@
+package com.creations.livebox
+
+import com.creations.livebox_common.util.Logger
+import java.lang.reflect.Type
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Persists fetched data in background.
+ *
+ * Writes are coalesced by key, while a write for a key is waiting or running newer data for the
+ * same key replaces the pending one, so only the newest data ends up being written.
+ * Until it is written, data can be read with [pending] so readers never see older data.
+ *
+ * A single task drains pending writes in the order keys were enqueued, so the executor never has
+ * more than one task from this queue and callers never block: when writes fall behind, keys wait
+ * in the queue and keep being coalesced.
+ */
+internal class WriteBehindQueue(private val mExecutor: Executor) {
+
+    class PendingWrite(val type: Type, val data: Any, val write: () -> Unit)
+
+    private val mLock = ReentrantLock()
+    private val mIdle = mLock.newCondition()
+
+    // Newest write for each key, removed once written.
+    private val mPending = LinkedHashMap<String, PendingWrite>()
+    // A drain task is scheduled or running, guarded by mLock.
+    private var mDraining = false
+
+    fun enqueue(key: String, write: PendingWrite) {
+        mLock.withLock {
+            if (mPending.put(key, write) != null) {
+                Logger.d(TAG, "Coalesce pending write for key: %s", key)
+            }
+            // The running task will pick it up.
+            if (mDraining) {
+                return
+            }
+            mDraining = true
+        }
+        mExecutor.execute { drain() }
+    }
+
+    fun pending(key: String): PendingWrite? = mLock.withLock { mPending[key] }
+
+    /**
+     * Blocks until every pending write is done or [timeout] elapses.
+     * @return true if there are no pending writes.
+     */
+    fun awaitIdle(timeout: Long, unit: TimeUnit): Boolean {
+        var remaining = unit.toNanos(timeout)
+        mLock.withLock {
+            while (!mPending.isEmpty()) {
+                if (remaining <= 0) {
+                    return false
+                }
+                remaining = mIdle.awaitNanos(remaining)
+            }
+        }
+        return true
+    }
+
+    private fun drain() {
+        var key: String? = null
+        try {
+            while (true) {
+                val next = mLock.withLock {
+                    val first = mPending.entries.firstOrNull()
+                    if (first == null) {
+                        mDraining = false
+                        mIdle.signalAll()
+                        return
+                    }
+                    first
+                }
+                key = next.key
+                val write = next.value
+
+                try {
+                    write.write()
+                } catch (e: Exception) {
+                    Logger.e(TAG, "Failed to write data for key: $key", e)
+                }
+
+                mLock.withLock {
+                    // Newer data enqueued while writing goes to the back of the queue.
+                    val newest = mPending.remove(key)
+                    if (newest != null && newest !== write) {
+                        mPending[key] = newest
+                    }
+                }
+                key = null
+            }
+        } finally {
+            // An Error escaped the write, drop the key so its data is not served forever.
+            if (key != null) {
+                Logger.e(TAG, "Drop pending write for key: $key")
+                val reschedule = mLock.withLock {
+                    mPending.remove(key)
+                    mIdle.signalAll()
+                    mDraining = !mPending.isEmpty()
+                    mDraining
+                }
+                if (reschedule) {
+                    mExecutor.execute { drain() }
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "WriteBehindQueue"
+        private const val KEEP_ALIVE_SECONDS = 30L
+
+        /**
+         * Single thread executor used for disk writes.
+         * The thread is a daemon and stops after [KEEP_ALIVE_SECONDS] without writes.
+         */
+        fun createDiskExecutor(): Executor = ThreadPoolExecutor(
+                1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                LinkedBlockingQueue(),
+                ThreadFactory { Thread(it, "livebox-write-behind").apply { isDaemon = true } }
+        ).apply { allowCoreThreadTimeOut(true) }
+    }
+}
@@ -2,18 +2,37 @@ package com.creations.livebox.config
 
 import android.content.Context
 import com.creations.livebox.datasources.disk.DiskLruConfig
+import com.creations.livebox.datasources.disk.DiskLruDataSource
 import com.creations.livebox.datasources.disk.DiskPersistentConfig
+import com.creations.livebox.datasources.memory.MemoryLruConfig
 import com.creations.livebox.util.io.getCacheDirectory
 import com.creations.livebox.util.io.getCacheSizeInBytes
+import com.creations.livebox.validator.Journal
 import com.creations.livebox_common.serializers.Serializer
 import java.io.File
 
-data class Config(
+data class Config @JvmOverloads constructor(
         val diskLruConfig: DiskLruConfig, val persistentConfig: DiskPersistentConfig,
         val serializer: Serializer, val journalDir: File?,
-        private val disableLogging: Boolean
+        private val disableLogging: Boolean,
+        val memoryLruConfig: MemoryLruConfig = MemoryLruConfig(),
+        val journalFormat: Journal.Format = Journal.Format.TEXT,
+        // Named disk caches with their own dir and size, sources choose one with Box.addSource
+        val diskLruPartitions: Map<String, DiskLruConfig> = emptyMap()
 ) {
 
+    init {
+        if (diskLruPartitions.containsKey(DiskLruDataSource.DEFAULT_PARTITION)) {
+            throw IllegalArgumentException("Partition name is reserved: ${DiskLruDataSource.DEFAULT_PARTITION}")
+        }
+
+        // Two caches on the same dir would delete each other entries
+        val dirs = (diskLruPartitions.values + diskLruConfig).mapNotNull { it.cacheDir?.absoluteFile }
+        if (dirs.size != dirs.toSet().size) {
+            throw IllegalArgumentException("Disk cache partitions must have different dirs")
+        }
+    }
+
     val isLoggingDisabled: Boolean
         get() = !disableLogging
 
@@ -29,12 +48,14 @@ data class Config(
         fun create(context: Context, serializer: Serializer): Config {
 
             val cacheDir = getCacheDirectory(context, LRU_DISK_CACHE_DIR)
-            val lruCacheSize = getCacheSizeInBytes(
-                    cacheDir,
-                    DEFAULT_DISK_CACHE_SIZE_PERCENT / 100f,
-                    DEFAULT_DISK_CACHE_SIZE.toLong()
-            )
-            val lruConfig = DiskLruConfig(cacheDir, lruCacheSize)
+            // Uses StatFs, computed when the disk cache is first used
+            val lruConfig = DiskLruConfig(cacheDir) {
+                getCacheSizeInBytes(
+                        cacheDir,
+                        DEFAULT_DISK_CACHE_SIZE_PERCENT / 100f,
+                        DEFAULT_DISK_CACHE_SIZE.toLong()
+                )
+            }
             val persistentConfig = DiskPersistentConfig(getCacheDirectory(context, PERSISTENT_DISK_CACHE_DIR))
             val journalDir = getCacheDirectory(context, JOURNAL_DIR)
 
@@ -47,10 +68,13 @@ data class Config(
     }
 
     override fun toString(): String = "DiskLruConfig{" +
-            "LruConfig=" + diskLruConfig +
+            "MemoryLruConfig=" + memoryLruConfig +
+            ", LruConfig=" + diskLruConfig +
+            ", LruPartitions=" + diskLruPartitions +
             ", PersistentConfig=" + persistentConfig +
             ", Serializer=" + serializer +
             ", JournalDir=" + journalDir +
+            ", JournalFormat=" + journalFormat +
             '}'
 
 }
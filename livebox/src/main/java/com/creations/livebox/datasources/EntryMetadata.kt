@@ -0,0 +1,14 @@
+package com.creations.livebox.datasources
+
+/**
+ * Cheap to read information about an entry stored in a [LocalDataSource].
+ *
+ * @param timestamp time in milliseconds when the entry was written or [UNKNOWN]
+ * @param size size in bytes of the stored entry or [UNKNOWN]
+ * @param version format version of the stored entry
+ */
+data class EntryMetadata(val timestamp: Long, val size: Long, val version: Int) {
+    companion object {
+        const val UNKNOWN = -1L
+    }
+}
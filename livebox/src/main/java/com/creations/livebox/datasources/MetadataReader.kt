@@ -0,0 +1,12 @@
+package com.creations.livebox.datasources
+
+/**
+ * Implemented by [LocalDataSource]s that can read [EntryMetadata] without reading the whole entry.
+ * Validators can then reject an entry before it is deserialized.
+ */
+interface MetadataReader {
+    /**
+     * @return metadata for the entry stored with [key] or null if there's no entry.
+     */
+    fun readMetadata(key: String): EntryMetadata?
+}
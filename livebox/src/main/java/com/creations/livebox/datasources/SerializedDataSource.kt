@@ -0,0 +1,19 @@
+package com.creations.livebox.datasources
+
+import com.creations.livebox_common.serializers.Serializer
+import okio.BufferedSource
+
+/**
+ * Implemented by [LocalDataSource]s that store data serialized with [serializer].
+ *
+ * When saving fetched data, Livebox serializes it once for every source sharing the same
+ * [serializer] and type and passes the same bytes to each one of them.
+ */
+interface SerializedDataSource {
+    val serializer: Serializer
+
+    /**
+     * Saves already serialized data fetched at [timestamp], [source] is consumed and closed.
+     */
+    fun saveSerialized(key: String, source: BufferedSource, timestamp: Long)
+}
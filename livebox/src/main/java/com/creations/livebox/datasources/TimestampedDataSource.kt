@@ -0,0 +1,14 @@
+package com.creations.livebox.datasources
+
+/**
+ * Implemented by [LocalDataSource]s that keep the time each entry was fetched.
+ *
+ * When data is copied from one source to another Livebox passes the time it was originally
+ * fetched, so the copy does not look newer than it is.
+ */
+interface TimestampedDataSource<I> {
+    /**
+     * Saves [input] fetched at [timestamp], in milliseconds.
+     */
+    fun save(key: String, input: I, timestamp: Long)
+}
@@ -0,0 +1,204 @@
+package com.creations.livebox.datasources.disk
+
+import net.jpountz.lz4.LZ4Exception
+import net.jpountz.lz4.LZ4Factory
+import okio.Buffer
+import okio.DeflaterSink
+import okio.GzipSink
+import okio.GzipSource
+import okio.InflaterSource
+import okio.Source
+import java.io.IOException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * Compresses entry payloads saved by the disk sources.
+ *
+ * The codec [id] is kept in the entry header and entries are decoded with the codec they were
+ * written with, so changing the codec keeps saved entries readable.
+ */
+interface Codec {
+    /**
+     * Kept in the entry header, between 0 and [Codecs.MAX_ID].
+     */
+    val id: Int
+
+    /**
+     * @return [payload] encoded, [payload] is consumed.
+     */
+    @Throws(IOException::class)
+    fun encode(payload: Buffer): Buffer
+
+    /**
+     * @return [payload] decoded, [payload] is consumed.
+     */
+    @Throws(IOException::class)
+    fun decode(payload: Buffer): Buffer
+}
+
+/**
+ * Available codecs. Ids below 8 are taken by the codecs below, custom codecs must be registered
+ * with an id from 8 to [MAX_ID] before reading entries written with them.
+ */
+object Codecs {
+
+    const val MAX_ID = 15
+    private const val MIN_CUSTOM_ID = 8
+
+    // Payload is stored as it is.
+    @JvmField
+    val NONE: Codec = NoneCodec()
+
+    @JvmField
+    val DEFLATE: Codec = DeflateCodec()
+
+    @JvmField
+    val GZIP: Codec = GzipCodec()
+
+    // Faster than DEFLATE and GZIP, but payloads are larger. Needs org.lz4:lz4-java on the classpath.
+    @JvmField
+    val LZ4: Codec = Lz4Codec()
+
+    /**
+     * @return true if org.lz4:lz4-java is on the classpath and [LZ4] can be used.
+     */
+    @JvmStatic
+    val isLz4Available: Boolean = try {
+        Class.forName("net.jpountz.lz4.LZ4Factory")
+        true
+    } catch (e: ClassNotFoundException) {
+        false
+    }
+
+    private val mCodecs = arrayOfNulls<Codec>(MAX_ID + 1).apply {
+        for (codec in listOf(NONE, DEFLATE, GZIP, LZ4)) {
+            this[codec.id] = codec
+        }
+    }
+
+    @JvmStatic
+    fun register(codec: Codec) {
+        if (codec.id < MIN_CUSTOM_ID || codec.id > MAX_ID) {
+            throw IllegalArgumentException("Codec id must be between $MIN_CUSTOM_ID and $MAX_ID: ${codec.id}")
+        }
+        mCodecs[codec.id] = codec
+    }
+
+    @JvmStatic
+    fun forId(id: Int): Codec? = if (id in 0..MAX_ID) mCodecs[id] else null
+}
+
+/**
+ * How disk sources compress the entries they save.
+ *
+ * @param codec used for new entries
+ * @param minSize payloads smaller than this many bytes are stored as they are, compressing them
+ * saves little space and costs a decode on every read
+ */
+data class Compression @JvmOverloads constructor(val codec: Codec, val minSize: Int = DEFAULT_MIN_SIZE) {
+    init {
+        if (codec === Codecs.LZ4 && !Codecs.isLz4Available) {
+            throw IllegalArgumentException("LZ4 needs org.lz4:lz4-java on the classpath")
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MIN_SIZE = 1024
+
+        @JvmField
+        val NONE = Compression(Codecs.NONE)
+    }
+}
+
+private class NoneCodec : Codec {
+    override val id = 0
+
+    override fun encode(payload: Buffer) = payload
+
+    override fun decode(payload: Buffer) = payload
+}
+
+// zlib format, with header and checksum.
+private class DeflateCodec : Codec {
+    override val id = 1
+
+    override fun encode(payload: Buffer): Buffer {
+        val out = Buffer()
+        DeflaterSink(out, Deflater()).use { it.write(payload, payload.size()) }
+        return out
+    }
+
+    override fun decode(payload: Buffer): Buffer = readAll(InflaterSource(payload, Inflater()))
+}
+
+private class GzipCodec : Codec {
+    override val id = 2
+
+    override fun encode(payload: Buffer): Buffer {
+        val out = Buffer()
+        GzipSink(out).use { it.write(payload, payload.size()) }
+        return out
+    }
+
+    override fun decode(payload: Buffer): Buffer = readAll(GzipSource(payload))
+}
+
+/**
+ * LZ4 block preceded by the decoded length (int).
+ *
+ * lz4-java is optional, its classes are only referenced from [Lz4Block] so this class loads
+ * without it and entries written with LZ4 fail to decode instead.
+ */
+private class Lz4Codec : Codec {
+    override val id = 3
+
+    override fun encode(payload: Buffer): Buffer {
+        checkAvailable()
+        return Lz4Block.encode(payload)
+    }
+
+    override fun decode(payload: Buffer): Buffer {
+        checkAvailable()
+        return Lz4Block.decode(payload)
+    }
+
+    private fun checkAvailable() {
+        if (!Codecs.isLz4Available) {
+            throw IOException("LZ4 needs org.lz4:lz4-java on the classpath")
+        }
+    }
+}
+
+private object Lz4Block {
+    // Pure Java, falls back to safe array access when Unsafe is not available.
+    private val mFactory = LZ4Factory.fastestJavaInstance()
+
+    fun encode(payload: Buffer): Buffer {
+        val bytes = payload.readByteArray()
+        val compressor = mFactory.fastCompressor()
+        val encoded = ByteArray(compressor.maxCompressedLength(bytes.size))
+        val length = compressor.compress(bytes, 0, bytes.size, encoded, 0, encoded.size)
+        return Buffer().writeInt(bytes.size).write(encoded, 0, length)
+    }
+
+    fun decode(payload: Buffer): Buffer {
+        val length = payload.readInt()
+        if (length < 0) {
+            throw IOException("Invalid LZ4 payload length: $length")
+        }
+        val decoded = ByteArray(length)
+        try {
+            mFactory.fastDecompressor().decompress(payload.readByteArray(), 0, decoded, 0, length)
+        } catch (e: LZ4Exception) {
+            throw IOException("Cannot decode LZ4 payload", e)
+        }
+        return Buffer().write(decoded)
+    }
+}
+
+private fun readAll(source: Source): Buffer {
+    val out = Buffer()
+    source.use { while (it.read(out, 8192) != -1L) Unit }
+    return out
+}
@@ -1,20 +1,29 @@
 package com.creations.livebox.datasources.disk
 
 import com.creations.livebox.Livebox.Companion.TAG
+import com.creations.livebox.datasources.EntryMetadata
+import com.creations.livebox.datasources.EntryMetadata.Companion.UNKNOWN
 import com.creations.livebox.datasources.LocalDataSource
+import com.creations.livebox.datasources.MetadataReader
+import com.creations.livebox.datasources.SerializedDataSource
+import com.creations.livebox.datasources.TimestampedDataSource
 import com.creations.livebox.util.io.closeQuietly
 import com.creations.livebox_common.serializers.Serializer
+import com.creations.livebox_common.serializers.serializeTo
 import com.creations.livebox_common.util.Logger
 import com.creations.livebox_common.util.bufferedSource
 import com.instagram.igdiskcache.EditorOutputStream
 import com.instagram.igdiskcache.IgDiskCache
 import com.instagram.igdiskcache.OptionalStream
 import com.instagram.igdiskcache.SnapshotInputStream
+import okio.BufferedSink
 import okio.BufferedSource
-import java.io.BufferedOutputStream
+import okio.Okio
 import java.io.File
 import java.io.IOException
 import java.lang.reflect.Type
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 
 /**
@@ -24,96 +33,227 @@ import java.util.concurrent.Executors
  */
 class DiskLruDataSource<I, O> private constructor(
         private val mSerializer: Serializer,
-        private val mType: Type
-) : LocalDataSource<I, O> {
+        private val mType: Type,
+        private val mPartition: String,
+        private val mCache: LiveboxDiskCache,
+        private val mCompression: Compression
+) : LocalDataSource<I, O>, MetadataReader, SerializedDataSource, TimestampedDataSource<I> {
 
     companion object {
+        // Partition configured with [config], used by sources created without a partition.
+        const val DEFAULT_PARTITION = "default"
+
         lateinit var config: DiskLruConfig
+
+        // Named partitions, each one evicts its entries on its own.
+        var partitions: Map<String, DiskLruConfig> = emptyMap()
+
+        // IgDiskCache owns its dir, a cache is kept for each dir and shared by configs that use it.
+        private val mCaches = HashMap<File?, LiveboxDiskCache>()
+
+        @JvmStatic
+        fun <I, O> create(serializer: Serializer, type: Type): DiskLruDataSource<I, O> =
+                create(serializer, type, DEFAULT_PARTITION)
+
+        /**
+         * Creates a source that keeps its entries in [partition], one of the partitions set in
+         * [com.creations.livebox.config.Config.diskLruPartitions] or [DEFAULT_PARTITION].
+         *
+         * @throws IllegalArgumentException if there's no such partition.
+         */
         @JvmStatic
-        fun <I, O> create(serializer: Serializer, type: Type): DiskLruDataSource<I, O> {
-            LiveboxDiskCache.config = config
-            return DiskLruDataSource(serializer, type)
+        fun <I, O> create(serializer: Serializer, type: Type, partition: String): DiskLruDataSource<I, O> {
+            val partitionConfig = if (partition == DEFAULT_PARTITION) {
+                config
+            } else {
+                partitions[partition] ?: throw IllegalArgumentException("Unknown disk cache partition: $partition")
+            }
+            return DiskLruDataSource(serializer, type, partition, cache(partitionConfig), partitionConfig.compression)
+        }
+
+        // Size and executor of the config that first opened a dir are kept while the dir is in use.
+        // Caches of dirs no longer in the config are closed.
+        private fun cache(partitionConfig: DiskLruConfig): LiveboxDiskCache = synchronized(mCaches) {
+            val dirs = partitions.values.mapTo(HashSet()) { it.cacheDir }.apply { add(config.cacheDir) }
+            val replaced = mCaches.filterKeys { it !in dirs }
+            for ((dir, cache) in replaced) {
+                mCaches.remove(dir)
+                cache.close()
+            }
+            mCaches.getOrPut(partitionConfig.cacheDir) { LiveboxDiskCache(partitionConfig) }
         }
     }
 
     override val type: Type
         get() = mType
 
+    override val serializer: Serializer
+        get() = mSerializer
+
     override fun read(key: String): O? {
-        val iis = LiveboxDiskCache[key]
+        val iis = mCache[key]
         Logger.d(TAG, "Read from disk cache is present: %s with key: %s", iis.isPresent, key)
         var data: O? = null
         if (iis.isPresent) {
-            data = mSerializer.deserialize<O>(bufferedSource(iis.get()), mType)
+            try {
+                bufferedSource(iis.get()).use {
+                    data = mSerializer.deserialize<O>(readPayload(it, mSerializer), mType)
+                }
+            } catch (e: CorruptEntryException) {
+                Logger.e(TAG, "Corrupted entry for key: $key", e)
+                mCache.clear(key)
+            } catch (e: IOException) {
+                Logger.e(TAG, "Cannot read entry for key: $key", e)
+            }
             Logger.d(TAG, "Data read from disk %s", data)
-            return data
         }
         return data
     }
 
-    override fun save(key: String, input: I) {
-        val oos = LiveboxDiskCache.edit(key)
-        Logger.d(TAG, "Save to disk cache is present: %s with key: %s", oos.isPresent, key)
-        if (oos.isPresent) {
-            try {
-                mSerializer.serialize(input, mType)?.apply {
-                    writeToCacheOutputStream(this, oos.get())
-                    oos.get().commit()
-                }
-            } finally {
-                oos.get().abortUnlessCommitted()
-            }
+    // Only reads the entry header, IgDiskCache keeps no timestamps for entries without one.
+    override fun readMetadata(key: String): EntryMetadata? {
+        val iis = mCache[key]
+        if (!iis.isPresent) {
+            return null
+        }
+
+        val header = try {
+            Okio.source(iis.get()).use { EntryHeader.readFrom(it) }
+        } catch (e: CorruptEntryException) {
+            Logger.e(TAG, "Corrupted entry header for key: $key", e)
+            mCache.clear(key)
+            return null
+        } catch (e: IOException) {
+            Logger.e(TAG, "Cannot read entry header for key: $key", e)
+            return null
+        }
+
+        return when {
+            header == null -> EntryMetadata(UNKNOWN, UNKNOWN, EntryHeader.LEGACY_VERSION)
+            header.isWrittenBy(mSerializer) -> header.toMetadata()
+            else -> null
+        }
+    }
+
+    override fun save(key: String, input: I) = save(key, input, System.currentTimeMillis())
+
+    // IgDiskCache streams cannot be written over, payload length and checksum go in a trailer.
+    override fun save(key: String, input: I, timestamp: Long) {
+        writeToCache(key) {
+            writeEntryWithTrailer(it, mSerializer, timestamp, mCompression) { sink -> mSerializer.serializeTo(input, mType, sink) }
+        }
+    }
+
+    override fun saveSerialized(key: String, source: BufferedSource, timestamp: Long) {
+        source.use {
+            writeToCache(key) { writeEntryWithTrailer(it, mSerializer, timestamp, mCompression) { sink -> sink.writeAll(source); true } }
         }
     }
 
     override fun clear(key: String) {
         Logger.d(TAG, "Clear key: %s", key)
-        LiveboxDiskCache.clear(key)
+        mCache.clear(key)
     }
 
-    private fun writeToCacheOutputStream(input: BufferedSource, output: EditorOutputStream) {
-        val os = BufferedOutputStream(output)
+    private fun writeToCache(key: String, write: (BufferedSink) -> Boolean) {
+        val oos = mCache.edit(key)
+        Logger.d(TAG, "Save to disk cache is present: %s with key: %s", oos.isPresent, key)
+        if (!oos.isPresent) {
+            return
+        }
+
+        // Edit is aborted unless everything was written.
+        val sink = Okio.buffer(Okio.sink(oos.get()))
         try {
-            input.inputStream().copyTo(os)
-            Logger.d(TAG, "---> Success data saved in diskLruDataSource.")
+            if (write(sink)) {
+                sink.flush()
+                oos.get().commit()
+                Logger.d(TAG, "---> Success data saved in diskLruDataSource.")
+            }
         } catch (e: IOException) {
-            e.printStackTrace()
+            Logger.e(TAG, "Cannot save entry for key: $key", e)
         } finally {
-            closeQuietly(input)
-            closeQuietly(os)
+            oos.get().abortUnlessCommitted()
+            closeQuietly(sink)
         }
     }
 
-    override fun toString() = "DiskLruDataSource"
+    override fun toString() = "DiskLruDataSource{Partition=$mPartition}"
 }
 
 
-private object LiveboxDiskCache {
+// Opened when first used. Once closed, sources still holding it read and save nothing.
+internal class LiveboxDiskCache(config: DiskLruConfig) {
 
-    lateinit var config: DiskLruConfig
+    // Shut down on close when the config has no executor.
+    private val mOwnExecutor: ExecutorService? = if (config.executor == null) Executors.newSingleThreadExecutor() else null
+    private val mExecutor: Executor = config.executor ?: mOwnExecutor!!
 
-    private val diskCache: IgDiskCache by lazy {
-        IgDiskCache(
-                config.cacheDir,
-                config.cacheSize,
-                Executors.newSingleThreadExecutor()
-        )
+    private val mDiskCache: Lazy<IgDiskCache> = lazy {
+        IgDiskCache(config.cacheDir, config.cacheSize, mExecutor)
     }
 
-    internal fun edit(key: String): OptionalStream<EditorOutputStream> = diskCache.edit(key)
+    @Volatile
+    private var mClosed = false
+
+    internal fun edit(key: String): OptionalStream<EditorOutputStream> =
+            if (mClosed) OptionalStream.absent() else mDiskCache.value.edit(key)
 
-    internal operator fun get(key: String): OptionalStream<SnapshotInputStream> = diskCache.get(key)
+    internal operator fun get(key: String): OptionalStream<SnapshotInputStream> =
+            if (mClosed) OptionalStream.absent() else mDiskCache.value.get(key)
 
     internal fun clear(key: String) {
-        diskCache.remove(key)
+        if (!mClosed) {
+            mDiskCache.value.remove(key)
+        }
+    }
+
+    // IgDiskCache must not be closed on the main thread, it is closed on its executor.
+    internal fun close() {
+        mClosed = true
+        mExecutor.execute {
+            if (mDiskCache.isInitialized()) {
+                mDiskCache.value.close()
+            }
+            mOwnExecutor?.shutdown()
+        }
     }
 }
 
-class DiskLruConfig(val cacheDir: File?, cacheSize: Long) {
-    val cacheSize: Long = Math.max(0, cacheSize)
+class DiskLruConfig private constructor(
+        val cacheDir: File?,
+        private val mCacheSize: Lazy<Long>,
+        // How new entries are compressed, entries are always read with the codec they were saved with
+        val compression: Compression,
+        // Runs cache maintenance, null for a single thread of its own
+        val executor: Executor?
+) {
+
+    @JvmOverloads
+    constructor(
+            cacheDir: File?,
+            cacheSize: Long,
+            compression: Compression = Compression.NONE,
+            executor: Executor? = null
+    ) : this(cacheDir, lazyOf(cacheSize), compression, executor)
+
+    // Size is only computed when the cache is first used, computing it may hit the disk.
+    @JvmOverloads
+    constructor(
+            cacheDir: File?,
+            cacheSize: () -> Long,
+            compression: Compression = Compression.NONE,
+            executor: Executor? = null
+    ) : this(cacheDir, lazy(cacheSize), compression, executor)
+
+    val cacheSize: Long
+        get() = Math.max(0, mCacheSize.value)
+
+    // Does not force a lazy size.
     override fun toString(): String =
             "DiskLruConfig{" +
                     "CacheDir=" + cacheDir +
-                    ", CacheSize=" + cacheSize +
+                    ", CacheSize=" + (if (mCacheSize.isInitialized()) cacheSize.toString() else "lazy") +
+                    ", Compression=" + compression +
                     '}'
 }
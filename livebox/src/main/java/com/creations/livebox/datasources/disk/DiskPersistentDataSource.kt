@@ -1,112 +1,210 @@
 package com.creations.livebox.datasources.disk
 
 import com.creations.livebox.Livebox.Companion.TAG
+import com.creations.livebox.datasources.EntryMetadata
 import com.creations.livebox.datasources.LocalDataSource
+import com.creations.livebox.datasources.MetadataReader
+import com.creations.livebox.datasources.SerializedDataSource
+import com.creations.livebox.datasources.TimestampedDataSource
 import com.creations.livebox_common.serializers.Serializer
+import com.creations.livebox_common.serializers.deserializeFrom
+import com.creations.livebox_common.serializers.serializeTo
 import com.creations.livebox_common.util.Logger
+import io.reactivex.schedulers.Schedulers
+import okio.BufferedSink
 import okio.BufferedSource
-import okio.Okio
 import java.io.File
-import java.io.FileNotFoundException
 import java.io.IOException
 import java.lang.reflect.Type
+import java.util.concurrent.Executor
 
 /**
  * @author Sérgio Serra on 25/08/2018.
  * sergioserra99@gmail.com
  */
 class DiskPersistentDataSource<I, O> private constructor(
-        private val mSerializer: Serializer,
+        override val serializer: Serializer,
         override val type: Type
-) : LocalDataSource<I, O> {
+) : LocalDataSource<I, O>, MetadataReader, SerializedDataSource, TimestampedDataSource<I> {
 
     companion object {
-        private const val SUFFIX = "_livebox.json"
+        private const val PACK_DIR = "pack"
         lateinit var config: DiskPersistentConfig
 
+        // Shared by every source, recreated when a different config is set.
+        @Volatile
+        private var mStore: Pair<DiskPersistentConfig, PersistentStore?>? = null
+
         @JvmStatic
         fun <I, O> create(serializer: Serializer, type: Type): DiskPersistentDataSource<I, O> =
                 DiskPersistentDataSource(serializer, type)
+
+        private fun store(): PersistentStore? {
+            val current = mStore
+            if (current != null && current.first === config) {
+                return current.second
+            }
+
+            return synchronized(this) {
+                val old = mStore
+                if (old != null && old.first === config) {
+                    old.second
+                } else {
+                    old?.second?.close()
+                    createStore(config).also { mStore = Pair(config, it) }
+                }
+            }
+        }
+
+        private fun createStore(config: DiskPersistentConfig): PersistentStore? {
+            val outputDir = config.outputDir ?: return null
+            val executor = Executor { Schedulers.io().scheduleDirect(it) }
+            return when (config.store) {
+                DiskPersistentConfig.Store.FILES -> FileStore(outputDir, config.fanOut, executor)
+                DiskPersistentConfig.Store.PACK -> try {
+                    PackStore(File(outputDir, PACK_DIR), executor)
+                } catch (e: IOException) {
+                    Logger.e(TAG, "Cannot open pack store, keep a file per key", e)
+                    FileStore(outputDir, config.fanOut, executor)
+                }
+            }
+        }
     }
 
     override fun read(key: String): O? {
         Logger.d(TAG, "Read from disk with  key: $key")
-        return readFromDisk(key)
-    }
+        val store = store() ?: return null
 
-    @Throws(IllegalStateException::class)
-    override fun save(key: String, input: I) {
-        Logger.d(TAG, "Save to disk with  key: $key")
-        writeToDisk(key, mSerializer.serialize(input, type))
-    }
+        var data: O? = null
+        try {
+            if (shouldMap(store.size(key))) {
+                val entry = store.map(key) ?: return null
+                return serializer.deserializeFrom<O>(readPayload(entry, serializer), type)
+            }
 
-    override fun clear(key: String) {
-        val outputFile = File(config.outputDir, key + SUFFIX)
-        if (outputFile.exists()) {
-            Logger.d(TAG, "Delete file: " + outputFile.name)
-            outputFile.delete()
+            store.open(key)?.use {
+                data = serializer.deserialize<O>(readPayload(it, serializer), type)
+            }
+        } catch (e: CorruptEntryException) {
+            // Would fail the same way on every read, until fetched again.
+            Logger.e(TAG, "Corrupted entry for key: $key", e)
+            store.quarantine(key)
+        } catch (e: IOException) {
+            Logger.e(TAG, "Cannot read entry for key: $key", e)
         }
+        return data
+    }
+
+    // Mapping has a fixed cost, only worth it for large entries.
+    private fun shouldMap(size: Long): Boolean {
+        val threshold = config.mmapThreshold
+        return threshold != DiskPersistentConfig.NO_MMAP && size >= threshold
     }
 
-    private fun readFromDisk(fileName: String): O? {
+    // Only reads the entry header, payload is not read.
+    override fun readMetadata(key: String): EntryMetadata? {
+        val store = store() ?: return null
 
-        if (config.outputDir == null) {
+        val header = try {
+            val read = readHeader(store, key)
+            // Truncated entries are found without reading the payload.
+            if (read != null && isTruncated(store, key, read)) {
+                throw CorruptEntryException("Entry is truncated")
+            }
+            read
+        } catch (e: CorruptEntryException) {
+            Logger.e(TAG, "Corrupted entry for key: $key", e)
+            store.quarantine(key)
+            return null
+        } catch (e: IOException) {
+            Logger.e(TAG, "Cannot read entry header for key: $key", e)
             return null
         }
 
-        val outputFile = File(config.outputDir, fileName + SUFFIX)
-        if (!outputFile.canRead()) {
-            return null
+        // Entries saved before headers were added only have the file timestamp.
+        return when {
+            header == null -> EntryMetadata(store.lastModified(key), store.size(key), EntryHeader.LEGACY_VERSION)
+            header.isWrittenBy(serializer) -> header.toMetadata()
+            else -> null
         }
+    }
 
-        Logger.d(TAG, "File available, read it")
+    private fun readHeader(store: PersistentStore, key: String): EntryHeader? =
+            store.peek(key, EntryHeader.HEADER_SIZE)?.let { EntryHeader.read(it) }
 
-        var data: O? = null
-        try {
-            Okio.buffer(Okio.source(outputFile)).use {
-                data = mSerializer.deserialize<O>(it, type)
-            }
-        } catch (e: FileNotFoundException) {
-            e.printStackTrace()
+    // Checked again before giving up, the entry may be replaced between reading its header and its size.
+    private fun isTruncated(store: PersistentStore, key: String, header: EntryHeader): Boolean {
+        if (store.size(key) == header.entrySize) {
+            return false
         }
-
-        return data
+        val again = readHeader(store, key) ?: return false
+        return again.timestamp == header.timestamp && again.crc == header.crc && store.size(key) != again.entrySize
     }
 
-    private fun writeToDisk(fileName: String, input: BufferedSource?) {
+    @Throws(IllegalStateException::class)
+    override fun save(key: String, input: I) = save(key, input, System.currentTimeMillis())
 
-        if (config.outputDir == null || input == null) {
-            return
-        }
+    override fun save(key: String, input: I, timestamp: Long) {
+        Logger.d(TAG, "Save to disk with  key: $key")
+        saveEntry(key, timestamp) { serializer.serializeTo(input, type, it) }
+    }
 
-        var created = true
-        if (!config.outputDir!!.exists()) {
-            created = config.outputDir!!.mkdir()
-        }
+    override fun saveSerialized(key: String, source: BufferedSource, timestamp: Long) {
+        Logger.d(TAG, "Save serialized data to disk with  key: $key")
+        source.use { saveEntry(key, timestamp) { sink -> sink.writeAll(it); true } }
+    }
 
-        // Cannot create file
-        if (!created) {
-            Logger.e(TAG, "Cannot create DiskPersistentDataSource output dir")
-            return
-        }
+    override fun clear(key: String) {
+        Logger.d(TAG, "Clear key: %s", key)
+        store()?.remove(key)
+    }
 
-        val outputFile = File(config.outputDir, fileName + SUFFIX)
+    // Payload is streamed to the store, the header is written over the entry start once complete.
+    private fun saveEntry(key: String, timestamp: Long, writePayload: (BufferedSink) -> Boolean) {
+        val store = store() ?: return
         try {
-            input.inputStream().use {
-                Okio.buffer(Okio.sink(outputFile)).outputStream().use { os ->
-                    it.copyTo(os)
-                    Logger.d(TAG, "Success data saved in diskPersistentDataSource.")
-                }
+            val saved = store.write(key) {
+                writeEntry(it, serializer, timestamp, config.compression, writePayload)?.toByteString()
+            }
+            if (saved) {
+                Logger.d(TAG, "Success data saved in diskPersistentDataSource.")
             }
-        } catch (e: FileNotFoundException) {
-            e.printStackTrace()
         } catch (e: IOException) {
-            e.printStackTrace()
+            Logger.e(TAG, "Cannot save entry for key: $key", e)
         }
-
     }
 
     override fun toString() = "DiskPersistentDataSource"
 }
 
-data class DiskPersistentConfig(internal val outputDir: File?)
+data class DiskPersistentConfig @JvmOverloads constructor(
+        internal val outputDir: File?,
+        // How entries are kept on disk, entries saved with a different store are not read
+        val store: Store = Store.FILES,
+        // Entries with at least this many bytes are memory mapped and parsed in place
+        val mmapThreshold: Long = NO_MMAP,
+        // How new entries are compressed, entries are always read with the codec they were saved with
+        val compression: Compression = Compression.NONE,
+        // FILES store only, number of subdirs files are spread over, entries are moved in background when it changes
+        val fanOut: Int = NO_SHARDS
+) {
+    companion object {
+        // Entries are never mapped.
+        const val NO_MMAP = Long.MAX_VALUE
+        // Every file in outputDir.
+        const val NO_SHARDS = FileStore.FLAT
+    }
+
+    init {
+        if (fanOut < NO_SHARDS || fanOut > FileStore.MAX_FAN_OUT) {
+            throw IllegalArgumentException("Fan-out must be between $NO_SHARDS and ${FileStore.MAX_FAN_OUT}: $fanOut")
+        }
+    }
+
+    enum class Store {
+        // A file for each key
+        FILES,
+        // Entries appended to a few segment files, better with many keys
+        PACK
+    }
+}
@@ -0,0 +1,390 @@
+package com.creations.livebox.datasources.disk
+
+import com.creations.livebox.datasources.EntryMetadata
+import com.creations.livebox_common.serializers.IdentifiedSerializer
+import com.creations.livebox_common.serializers.Serializer
+import okio.Buffer
+import okio.BufferedSink
+import okio.BufferedSource
+import okio.ByteString
+import okio.ForwardingSink
+import okio.Okio
+import okio.Sink
+import okio.Source
+import java.io.EOFException
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+
+/**
+ * Binary header written in front of every entry saved by the disk sources, so entry metadata can
+ * be read with a single small read and the payload checked before it is deserialized.
+ *
+ * Layout, big endian, [HEADER_SIZE] bytes:
+ * <pre>
+ * magic (int) | version (short) | flags (short) | serializer id (int) | timestamp (long) |
+ * payload length (long) | payload crc32 (int)
+ * </pre>
+ * Entries saved before the header existed start with the payload, they are told apart by the
+ * magic, which is not valid UTF-8 so no text payload starts with it.
+ *
+ * The low 4 bits of the flags hold the id of the [Codec] the payload is encoded with, payload
+ * length and crc are those of the encoded payload.
+ *
+ * Entries streamed to a sink that cannot be written over have version [TRAILER_VERSION]: payload
+ * length and crc are [EntryMetadata.UNKNOWN] and 0 in the header and follow the payload instead:
+ * <pre>
+ * payload length (long) | payload crc32 (int)
+ * </pre>
+ *
+ * @param serializerId id of the serializer that wrote the payload, see [serializerId]
+ * @param timestamp time in milliseconds when the entry was fetched
+ */
+internal class EntryHeader(
+        val serializerId: Int,
+        val timestamp: Long,
+        val payloadLength: Long,
+        val crc: Int,
+        val flags: Int = 0,
+        val version: Int = VERSION
+) {
+
+    val codecId: Int
+        get() = flags and CODEC_MASK
+
+    fun isWrittenBy(serializer: Serializer): Boolean = serializerId == serializerId(serializer)
+
+    @Throws(IOException::class)
+    fun codec(): Codec = Codecs.forId(codecId) ?: throw CorruptEntryException("Unknown entry codec: $codecId")
+
+    val hasTrailer: Boolean
+        get() = version == TRAILER_VERSION
+
+    // Size of the whole entry, as stored, or UNKNOWN when it ends with a trailer.
+    val entrySize: Long
+        get() = if (hasTrailer) EntryMetadata.UNKNOWN else HEADER_SIZE + payloadLength
+
+    fun toMetadata(): EntryMetadata = EntryMetadata(timestamp, payloadLength, version)
+
+    fun toByteString(): ByteString = Buffer().also { writeTo(it) }.readByteString()
+
+    fun writeTo(sink: BufferedSink) {
+        sink.write(MAGIC)
+        sink.writeShort(version)
+        sink.writeShort(flags)
+        sink.writeInt(serializerId)
+        sink.writeLong(timestamp)
+        sink.writeLong(payloadLength)
+        sink.writeInt(crc)
+    }
+
+    companion object {
+        const val HEADER_SIZE = 32
+        const val VERSION = 2
+        // Payload length and crc are in a trailer.
+        const val TRAILER_VERSION = 3
+        const val TRAILER_SIZE = 12
+        // Version reported for entries without header.
+        const val LEGACY_VERSION = 1
+
+        private const val CODEC_MASK = 0xf
+
+        private val MAGIC = ByteString.of(0x89.toByte(), 'L'.toByte(), 'B'.toByte(), 'E'.toByte())
+
+        /**
+         * Reads the header at the start of [source].
+         *
+         * @return the header or null if the entry has none, [source] is not consumed in that case.
+         * @throws CorruptEntryException if the header is truncated or has an unknown version.
+         */
+        @Throws(IOException::class)
+        fun read(source: BufferedSource): EntryHeader? {
+            if (!source.rangeEquals(0, MAGIC)) {
+                return null
+            }
+            if (!source.request(HEADER_SIZE.toLong())) {
+                throw CorruptEntryException("Entry header is truncated")
+            }
+
+            source.skip(MAGIC.size().toLong())
+            val version = source.readShort().toInt()
+            if (version != VERSION && version != TRAILER_VERSION) {
+                throw CorruptEntryException("Unknown entry version: $version")
+            }
+            val flags = source.readShort().toInt() and 0xffff
+            val serializerId = source.readInt()
+            val timestamp = source.readLong()
+            val payloadLength = source.readLong()
+            val crc = source.readInt()
+            return EntryHeader(serializerId, timestamp, payloadLength, crc, flags, version)
+        }
+
+        /**
+         * Reads only the header bytes from [source], without buffering any of the payload.
+         */
+        @Throws(IOException::class)
+        fun readFrom(source: Source): EntryHeader? {
+            val buffer = Buffer()
+            while (buffer.size() < HEADER_SIZE) {
+                if (source.read(buffer, HEADER_SIZE - buffer.size()) == -1L) break
+            }
+            return read(buffer)
+        }
+
+        /**
+         * Entries can only be read back by the same kind of serializer that wrote them.
+         * Serializers that are not an [IdentifiedSerializer] are told apart by their class name,
+         * which must then be kept by ProGuard or R8 or entries are lost when it changes.
+         */
+        fun serializerId(serializer: Serializer): Int =
+                (serializer as? IdentifiedSerializer)?.serializerId ?: serializer.javaClass.name.hashCode()
+    }
+}
+
+/**
+ * Thrown when an entry cannot be read back because it is truncated or its bytes changed, reading
+ * it again fails the same way.
+ */
+internal class CorruptEntryException(message: String, cause: Throwable? = null) : IOException(message, cause)
+
+/**
+ * Writes [payload] with its header to [sink]. [payload] is consumed.
+ *
+ * The payload is encoded with the [compression] codec if it is at least [Compression.minSize]
+ * bytes and encoding makes it smaller, otherwise it is stored as it is.
+ *
+ * @return the header written.
+ */
+@JvmOverloads
+internal fun writeEntry(
+        sink: BufferedSink,
+        serializer: Serializer,
+        timestamp: Long,
+        payload: Buffer,
+        compression: Compression = Compression.NONE
+): EntryHeader {
+    var codec = Codecs.NONE
+    var stored = payload
+    if (compression.codec !== Codecs.NONE && payload.size() >= compression.minSize) {
+        val encoded = compression.codec.encode(payload.clone())
+        if (encoded.size() < payload.size()) {
+            codec = compression.codec
+            stored = encoded
+        }
+    }
+
+    val header = EntryHeader(EntryHeader.serializerId(serializer), timestamp, stored.size(), crc32(stored), codec.id)
+    header.writeTo(sink)
+    sink.writeAll(stored)
+    return header
+}
+
+/**
+ * Streams an entry to [sink], [writePayload] writes the payload and returns false when it fails.
+ *
+ * Payload length and crc are only known once the payload is written, the header is written with
+ * neither and the header returned must be written over it, see [EntryHeader.toByteString].
+ * With a [compression] codec the payload is buffered first, codecs encode it as a whole.
+ *
+ * @return the complete header or null if [writePayload] failed, the entry must then be dropped.
+ */
+internal fun writeEntry(
+        sink: BufferedSink,
+        serializer: Serializer,
+        timestamp: Long,
+        compression: Compression,
+        writePayload: (BufferedSink) -> Boolean
+): EntryHeader? {
+    if (compression.codec !== Codecs.NONE) {
+        val payload = Buffer()
+        return if (writePayload(payload)) writeEntry(sink, serializer, timestamp, payload, compression) else null
+    }
+
+    val serializerId = EntryHeader.serializerId(serializer)
+    EntryHeader(serializerId, timestamp, 0, 0).writeTo(sink)
+    val checksum = streamPayload(sink, writePayload) ?: return null
+    return EntryHeader(serializerId, timestamp, checksum.byteCount, checksum.crc)
+}
+
+/**
+ * Same as the streaming [writeEntry], for sinks that cannot be written over: payload length and
+ * crc are written in a trailer, see [EntryHeader.TRAILER_VERSION].
+ *
+ * @return false if [writePayload] failed, the entry must then be dropped.
+ */
+internal fun writeEntryWithTrailer(
+        sink: BufferedSink,
+        serializer: Serializer,
+        timestamp: Long,
+        compression: Compression,
+        writePayload: (BufferedSink) -> Boolean
+): Boolean {
+    if (compression.codec !== Codecs.NONE) {
+        return writeEntry(sink, serializer, timestamp, compression, writePayload) != null
+    }
+
+    EntryHeader(EntryHeader.serializerId(serializer), timestamp, EntryMetadata.UNKNOWN, 0,
+            version = EntryHeader.TRAILER_VERSION).writeTo(sink)
+    val checksum = streamPayload(sink, writePayload) ?: return false
+    sink.writeLong(checksum.byteCount)
+    sink.writeInt(checksum.crc)
+    return true
+}
+
+// Payload goes straight to sink, its length and crc are computed on the way.
+private fun streamPayload(sink: BufferedSink, writePayload: (BufferedSink) -> Boolean): ChecksumSink? {
+    val checksum = ChecksumSink(sink)
+    // Not closed, that would close sink.
+    val payloadSink = Okio.buffer(checksum)
+    if (!writePayload(payloadSink)) {
+        return null
+    }
+    payloadSink.emit()
+    return checksum
+}
+
+/**
+ * Returns the payload of the entry in [source], checked against its header.
+ * Entries without header are returned as they are.
+ *
+ * @throws CorruptEntryException if the entry is truncated or its checksum does not match.
+ * @throws IOException if the entry was written by a different serializer.
+ */
+@Throws(IOException::class)
+internal fun readPayload(source: BufferedSource, serializer: Serializer): BufferedSource {
+    val header = EntryHeader.read(source) ?: return source
+    if (!header.isWrittenBy(serializer)) {
+        throw IOException("Entry was written by a different serializer")
+    }
+
+    val payload = Buffer()
+    var crc = header.crc
+    if (header.hasTrailer) {
+        val entry = Buffer()
+        source.readAll(entry)
+        val payloadLength = entry.size() - EntryHeader.TRAILER_SIZE
+        if (payloadLength < 0) {
+            throw CorruptEntryException("Entry is truncated")
+        }
+        payload.write(entry, payloadLength)
+        if (entry.readLong() != payloadLength) {
+            throw CorruptEntryException("Entry length does not match trailer")
+        }
+        crc = entry.readInt()
+    } else {
+        try {
+            source.readFully(payload, header.payloadLength)
+        } catch (e: EOFException) {
+            throw CorruptEntryException("Entry is truncated", e)
+        }
+    }
+    if (crc32(payload) != crc) {
+        throw CorruptEntryException("Entry checksum does not match")
+    }
+    return decode(header.codec(), payload)
+}
+
+/**
+ * Same as [readPayload] for an entry in a [ByteBuffer], usually memory mapped.
+ * The payload returned shares the content of [entry], it is only copied when it is encoded.
+ */
+@Throws(IOException::class)
+internal fun readPayload(entry: ByteBuffer, serializer: Serializer): ByteBuffer {
+    val headerBytes = ByteArray(Math.min(EntryHeader.HEADER_SIZE, entry.remaining()))
+    entry.duplicate().get(headerBytes)
+    val header = EntryHeader.read(Buffer().write(headerBytes)) ?: return entry
+    if (!header.isWrittenBy(serializer)) {
+        throw IOException("Entry was written by a different serializer")
+    }
+    val payloadLength: Long
+    val crc: Int
+    if (header.hasTrailer) {
+        payloadLength = entry.remaining().toLong() - EntryHeader.HEADER_SIZE - EntryHeader.TRAILER_SIZE
+        val trailer = entry.limit() - EntryHeader.TRAILER_SIZE
+        if (payloadLength < 0 || entry.getLong(trailer) != payloadLength) {
+            throw CorruptEntryException("Entry length does not match trailer")
+        }
+        crc = entry.getInt(trailer + 8)
+    } else {
+        // Entry was mapped as a whole, any other size means it is truncated.
+        if (entry.remaining().toLong() != header.entrySize) {
+            throw CorruptEntryException("Entry size: ${entry.remaining()} does not match header: ${header.entrySize}")
+        }
+        payloadLength = header.payloadLength
+        crc = header.crc
+    }
+
+    val start = entry.position() + EntryHeader.HEADER_SIZE
+    val payload = entry.duplicate()
+    payload.limit(start + payloadLength.toInt())
+    payload.position(start)
+    if (crc32(payload) != crc) {
+        throw CorruptEntryException("Entry checksum does not match")
+    }
+
+    val codec = header.codec()
+    if (codec === Codecs.NONE) {
+        return payload.slice()
+    }
+    val encoded = ByteArray(payload.remaining())
+    payload.get(encoded)
+    return ByteBuffer.wrap(decode(codec, Buffer().write(encoded)).readByteArray())
+}
+
+// Checksum matched, a payload that cannot be decoded was written corrupted.
+private fun decode(codec: Codec, payload: Buffer): Buffer = try {
+    codec.decode(payload)
+} catch (e: IOException) {
+    throw CorruptEntryException("Cannot decode entry payload", e)
+}
+
+// Segments are passed as they are, payload is not copied.
+private fun crc32(payload: Buffer): Int {
+    val out = Crc32OutputStream()
+    payload.copyTo(out)
+    return out.crc.value.toInt()
+}
+
+// CRC32.update(ByteBuffer) needs API 26, direct buffers are copied in small chunks.
+private fun crc32(payload: ByteBuffer): Int {
+    val crc = CRC32()
+    if (payload.hasArray()) {
+        crc.update(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining())
+    } else {
+        val bytes = payload.duplicate()
+        val chunk = ByteArray(Math.min(CRC_CHUNK_SIZE, bytes.remaining()))
+        while (bytes.hasRemaining()) {
+            val count = Math.min(chunk.size, bytes.remaining())
+            bytes.get(chunk, 0, count)
+            crc.update(chunk, 0, count)
+        }
+    }
+    return crc.value.toInt()
+}
+
+private const val CRC_CHUNK_SIZE = 8192
+
+private class ChecksumSink(delegate: Sink) : ForwardingSink(delegate) {
+    private val mCrc = Crc32OutputStream()
+
+    var byteCount = 0L
+        private set
+
+    val crc: Int
+        get() = mCrc.crc.value.toInt()
+
+    override fun write(source: Buffer, byteCount: Long) {
+        source.copyTo(mCrc, 0, byteCount)
+        this.byteCount += byteCount
+        super.write(source, byteCount)
+    }
+}
+
+private class Crc32OutputStream : OutputStream() {
+    val crc = CRC32()
+
+    override fun write(b: Int) = crc.update(b)
+
+    override fun write(b: ByteArray, off: Int, len: Int) = crc.update(b, off, len)
+}
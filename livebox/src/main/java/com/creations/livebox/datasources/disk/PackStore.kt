@@ -0,0 +1,418 @@
+package com.creations.livebox.datasources.disk
+
+import com.creations.livebox.datasources.EntryMetadata.Companion.UNKNOWN
+import com.creations.livebox.util.io.closeQuietly
+import com.creations.livebox_common.util.Logger
+import okio.Buffer
+import okio.BufferedSink
+import okio.BufferedSource
+import okio.ByteString
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedByInterruptException
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.FileChannel
+import java.nio.charset.Charset
+import java.util.concurrent.Executor
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * [PersistentStore] that appends entries to a few segment files instead of keeping a file per key.
+ *
+ * Record layout, big endian:
+ * <pre>
+ * key length (short) | key (UTF-8) | entry length (int) | entry
+ * </pre>
+ * Removing a key appends a record with entry length [TOMBSTONE] and no entry.
+ *
+ * An index in memory maps each key to its latest record. It is rebuilt on open by replaying the
+ * segments in order, reading only record headers, and a truncated record at the end of a segment
+ * is dropped. Entries are read with positional reads on the segment channel. Writes are appended to
+ * the last segment, a new one is started once it reaches [MAX_SEGMENT_SIZE].
+ *
+ * Replaced and removed records are garbage. Once more than half of a full segment is garbage its
+ * live records are copied to the last segment on [mExecutor] and the segment is deleted.
+ *
+ * Readers share a lock, writes and segment removal hold it exclusively.
+ */
+internal class PackStore @Throws(IOException::class) constructor(
+        private val mDir: File,
+        private val mExecutor: Executor
+) : PersistentStore {
+
+    companion object {
+        private const val TAG = "PackStore"
+        private const val PREFIX = "segment_"
+        private const val EXTENSION = ".pack"
+
+        private const val TOMBSTONE = -1
+        // Key length and entry length.
+        private const val RECORD_OVERHEAD = 6
+        private const val MAX_SEGMENT_SIZE = 4L * 1024 * 1024
+        private const val MAX_GARBAGE_RATIO = 0.5
+
+        private val UTF_8 = Charset.forName("UTF-8")
+    }
+
+    private class Segment(val id: Int, val file: File) {
+        @Volatile
+        var channel: FileChannel = open()
+        private var mClosed = false
+
+        // Bytes written to the segment and bytes of records still in the index.
+        var size = 0L
+        var liveBytes = 0L
+
+        // Removed keys, kept while older segments may still have records for them.
+        val tombstones = HashSet<String>()
+
+        val garbage: Long
+            get() = size - liveBytes
+
+        // A thread interrupted while using the channel closes it for every thread.
+        @Synchronized
+        fun reopen(closed: FileChannel): FileChannel {
+            if (mClosed) {
+                throw ClosedChannelException()
+            }
+            if (channel === closed) {
+                channel = open()
+            }
+            return channel
+        }
+
+        @Synchronized
+        fun close() {
+            mClosed = true
+            closeQuietly(channel)
+        }
+
+        private fun open(): FileChannel = RandomAccessFile(file, "rw").channel
+    }
+
+    private class Location(val segment: Segment, val offset: Long, val length: Int, val recordSize: Long)
+
+    private val mLock = ReentrantReadWriteLock()
+    private val mIndex = HashMap<String, Location>()
+    // Ordered by id, entries are appended to the last one.
+    private val mSegments = ArrayList<Segment>()
+    private var mCompacting = false
+
+    init {
+        mLock.write { open() }
+    }
+
+    private fun open() {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw IOException("Cannot create pack dir")
+        }
+
+        val ids = (mDir.list() ?: throw IOException("Cannot list pack dir"))
+                .filter { it.startsWith(PREFIX) && it.endsWith(EXTENSION) }
+                .mapNotNull { it.removePrefix(PREFIX).removeSuffix(EXTENSION).toIntOrNull() }
+                .sorted()
+        for (id in ids) {
+            val segment = Segment(id, segmentFile(id))
+            mSegments.add(segment)
+            scan(segment)
+        }
+
+        if (mSegments.isEmpty()) {
+            mSegments.add(Segment(0, segmentFile(0)))
+        }
+        Logger.d(TAG, "Opened pack with entries: ${mIndex.size} segments: ${mSegments.size}")
+        scheduleCompaction()
+    }
+
+    override fun open(key: String): BufferedSource? = read(key, Long.MAX_VALUE)
+
+    override fun peek(key: String, byteCount: Int): Buffer? = read(key, byteCount.toLong())
+
+    // Copies up to byteCount bytes of the entry from the segment channel into a buffer.
+    private fun read(key: String, byteCount: Long): Buffer? {
+        mLock.read {
+            val location = mIndex[key] ?: return null
+            val entry = Buffer()
+            if (!readFully(location.segment, entry, location.offset, Math.min(byteCount, location.length.toLong()))) {
+                throw IOException("Entry is truncated for key: $key")
+            }
+            return entry
+        }
+    }
+
+    // Maps the entry region of its segment, segments are only appended to.
+    override fun map(key: String): ByteBuffer? {
+        mLock.read {
+            val location = mIndex[key] ?: return null
+            return withChannel(location.segment) {
+                it.map(FileChannel.MapMode.READ_ONLY, location.offset, location.length.toLong())
+            }
+        }
+    }
+
+    override fun write(key: String, entry: Buffer) {
+        if (entry.size() > Int.MAX_VALUE) {
+            throw IOException("Entry is too large: ${entry.size()}")
+        }
+        // Key length is a short, and an empty key reads as the end of a segment.
+        val keyLength = key.toByteArray(UTF_8).size
+        if (keyLength == 0 || keyLength > Short.MAX_VALUE) {
+            throw IOException("Key length is not supported: $keyLength")
+        }
+
+        mLock.write {
+            append(key, entry)
+            scheduleCompaction()
+        }
+    }
+
+    // Records start with the entry length, entries are buffered before they are appended.
+    override fun write(key: String, writer: (BufferedSink) -> ByteString?): Boolean {
+        val written = Buffer()
+        val start = writer(written) ?: return false
+        val entry = Buffer().write(start)
+        written.skip(start.size().toLong())
+        entry.writeAll(written)
+        write(key, entry)
+        return true
+    }
+
+    override fun remove(key: String) {
+        mLock.write {
+            if (!removeFromIndex(key)) {
+                return
+            }
+            try {
+                append(key, null)
+            } catch (e: IOException) {
+                Logger.e(TAG, "Cannot write removal of key: $key", e)
+            }
+            scheduleCompaction()
+        }
+    }
+
+    // Records cannot be moved out of a segment, the entry is only removed.
+    override fun quarantine(key: String) {
+        Logger.e(TAG, "Remove corrupted entry for key: $key")
+        remove(key)
+    }
+
+    // Entries always have a header with their timestamp.
+    override fun lastModified(key: String): Long = UNKNOWN
+
+    override fun size(key: String): Long = mLock.read { mIndex[key]?.length?.toLong() ?: UNKNOWN }
+
+    override fun close() {
+        mLock.write {
+            mSegments.forEach { it.close() }
+            mSegments.clear()
+            mIndex.clear()
+        }
+    }
+
+    // Must hold the write lock. A null entry removes the key.
+    private fun append(key: String, entry: Buffer?) {
+        val segment = mSegments.lastOrNull() ?: throw IOException("Pack store is closed")
+        val keyBytes = key.toByteArray(UTF_8)
+        val entryLength = entry?.size()?.toInt() ?: TOMBSTONE
+
+        val record = Buffer()
+                .writeShort(keyBytes.size)
+                .write(keyBytes)
+                .writeInt(entryLength)
+        if (entry != null) {
+            record.writeAll(entry)
+        }
+
+        val offset = segment.size
+        val recordSize = record.size()
+        try {
+            writeFully(segment, ByteBuffer.wrap(record.readByteArray()), offset)
+        } catch (e: IOException) {
+            // Next record overwrites it, drop it in case there's none.
+            try {
+                segment.channel.truncate(offset)
+            } catch (ignored: IOException) {
+            }
+            throw e
+        }
+        segment.size += recordSize
+
+        if (entry == null) {
+            segment.tombstones.add(key)
+        } else {
+            putInIndex(key, Location(segment, offset + RECORD_OVERHEAD + keyBytes.size, entryLength, recordSize))
+        }
+
+        if (segment.size >= MAX_SEGMENT_SIZE) {
+            mSegments.add(Segment(segment.id + 1, segmentFile(segment.id + 1)))
+        }
+    }
+
+    // Replays the records of segment into the index.
+    private fun scan(segment: Segment) {
+        val length = segment.channel.size()
+        val lengths = ByteBuffer.allocate(4)
+        var position = 0L
+        while (position < length) {
+            lengths.clear()
+            lengths.limit(2)
+            if (!readFully(segment, lengths, position)) break
+            val keyLength = lengths.getShort(0).toInt()
+            if (keyLength <= 0) break
+
+            val keyBytes = ByteBuffer.allocate(keyLength)
+            lengths.clear()
+            if (!readFully(segment, keyBytes, position + 2)
+                    || !readFully(segment, lengths, position + 2 + keyLength)) break
+
+            val entryLength = lengths.getInt(0)
+            val entryOffset = position + RECORD_OVERHEAD + keyLength
+            val end = entryOffset + Math.max(entryLength, 0)
+            if (entryLength < TOMBSTONE || end > length) break
+
+            val key = String(keyBytes.array(), UTF_8)
+            if (entryLength == TOMBSTONE) {
+                removeFromIndex(key)
+                segment.tombstones.add(key)
+            } else {
+                putInIndex(key, Location(segment, entryOffset, entryLength, end - position))
+            }
+            position = end
+        }
+
+        if (position < length) {
+            Logger.e(TAG, "Drop truncated record from segment: ${segment.file.name}")
+            segment.channel.truncate(position)
+        }
+        segment.size = position
+    }
+
+    private fun putInIndex(key: String, location: Location) {
+        val old = mIndex.put(key, location)
+        if (old != null) {
+            old.segment.liveBytes -= old.recordSize
+        }
+        location.segment.liveBytes += location.recordSize
+    }
+
+    private fun removeFromIndex(key: String): Boolean {
+        val old = mIndex.remove(key) ?: return false
+        old.segment.liveBytes -= old.recordSize
+        return true
+    }
+
+    // Must hold the write lock.
+    private fun scheduleCompaction() {
+        if (!mCompacting && findGarbageSegment() != null) {
+            mCompacting = true
+            mExecutor.execute { compact() }
+        }
+    }
+
+    // Full segment with the most garbage, if it is over the limit. The last segment is never compacted.
+    private fun findGarbageSegment(): Segment? = mSegments
+            .take(mSegments.size - 1)
+            .filter { it.garbage > it.size * MAX_GARBAGE_RATIO }
+            .maxBy { it.garbage }
+
+    private fun compact() {
+        try {
+            while (true) {
+                val segment = mLock.read { findGarbageSegment() } ?: break
+                compact(segment)
+            }
+        } catch (e: IOException) {
+            Logger.e(TAG, "Pack compaction failed", e)
+        } finally {
+            mLock.write { mCompacting = false }
+        }
+    }
+
+    // Live entries are read without blocking readers, entries written meanwhile are not copied.
+    private fun compact(segment: Segment) {
+        val live = mLock.read { mIndex.entries.filter { it.value.segment === segment }.map { Pair(it.key, it.value) } }
+
+        val entries = live.map { (_, location) ->
+            val entry = Buffer()
+            if (!readFully(segment, entry, location.offset, location.length.toLong())) {
+                throw IOException("Entry is truncated in segment: ${segment.file.name}")
+            }
+            entry
+        }
+
+        mLock.write {
+            for ((i, pair) in live.withIndex()) {
+                if (mIndex[pair.first] === pair.second) {
+                    append(pair.first, entries[i])
+                }
+            }
+
+            // Older segments may still have records for removed keys.
+            val hasOlderSegments = mSegments.indexOf(segment) > 0
+            for (key in segment.tombstones) {
+                if (hasOlderSegments && !mIndex.containsKey(key)) {
+                    append(key, null)
+                }
+            }
+
+            mSegments.remove(segment)
+            segment.close()
+            segment.file.delete()
+            Logger.d(TAG, "Compacted segment: ${segment.file.name} live entries: ${live.size}")
+        }
+    }
+
+    private fun readFully(segment: Segment, buffer: ByteBuffer, position: Long): Boolean =
+            withChannel(segment) { channel ->
+                var offset = position + buffer.position()
+                while (buffer.hasRemaining()) {
+                    val read = channel.read(buffer, offset)
+                    if (read == -1) return@withChannel false
+                    offset += read
+                }
+                true
+            }
+
+    private fun readFully(segment: Segment, sink: Buffer, position: Long, byteCount: Long): Boolean {
+        val start = sink.size()
+        return withChannel(segment) { channel ->
+            while (sink.size() - start < byteCount) {
+                val read = sink.size() - start
+                if (channel.transferTo(position + read, byteCount - read, sink) <= 0L) {
+                    return@withChannel false
+                }
+            }
+            true
+        }
+    }
+
+    private fun writeFully(segment: Segment, buffer: ByteBuffer, position: Long) =
+            withChannel(segment) { channel ->
+                var offset = position + buffer.position()
+                while (buffer.hasRemaining()) {
+                    offset += channel.write(buffer, offset)
+                }
+            }
+
+    // Positional reads and writes resume from the buffer position or size when retried on a reopened channel.
+    private inline fun <T> withChannel(segment: Segment, block: (FileChannel) -> T): T {
+        val channel = segment.channel
+        return try {
+            block(channel)
+        } catch (e: ClosedByInterruptException) {
+            segment.reopen(channel)
+            throw e
+        } catch (e: ClosedChannelException) {
+            block(segment.reopen(channel))
+        }
+    }
+
+    private fun segmentFile(id: Int) = File(mDir, PREFIX + id + EXTENSION)
+
+    override fun toString() = "PackStore{Dir=$mDir}"
+}
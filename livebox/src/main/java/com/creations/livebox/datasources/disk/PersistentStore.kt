@@ -0,0 +1,361 @@
+package com.creations.livebox.datasources.disk
+
+import com.creations.livebox.datasources.EntryMetadata.Companion.UNKNOWN
+import com.creations.livebox_common.util.Logger
+import okio.Buffer
+import okio.BufferedSink
+import okio.BufferedSource
+import okio.ByteString
+import okio.Okio
+import java.io.Closeable
+import java.io.File
+import java.io.FileFilter
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.Executor
+
+/**
+ * Where [DiskPersistentDataSource] keeps its entries. Entries are opaque bytes indexed by key,
+ * see [EntryHeader] for their format.
+ */
+internal interface PersistentStore : Closeable {
+
+    /**
+     * Opens the entry stored with [key], the caller must close it.
+     *
+     * @return the entry bytes or null if there's no entry.
+     */
+    @Throws(IOException::class)
+    fun open(key: String): BufferedSource?
+
+    /**
+     * Reads at most [byteCount] bytes from the start of the entry stored with [key].
+     *
+     * @return the bytes read or null if there's no entry.
+     */
+    @Throws(IOException::class)
+    fun peek(key: String, byteCount: Int): Buffer?
+
+    /**
+     * Maps the entry stored with [key] in memory, read only. The mapping stays valid after the
+     * entry is replaced or removed.
+     *
+     * @return the mapped entry or null if there's no entry.
+     */
+    @Throws(IOException::class)
+    fun map(key: String): ByteBuffer?
+
+    /**
+     * Replaces the entry stored with [key] with [entry], which is consumed.
+     */
+    @Throws(IOException::class)
+    fun write(key: String, entry: Buffer)
+
+    /**
+     * Replaces the entry stored with [key] with the bytes [writer] writes to the sink it is given.
+     * [writer] returns the bytes to write over the start of the entry once it is complete, for
+     * headers only known at the end, or null to keep the current entry.
+     *
+     * @return false if [writer] returned null.
+     */
+    @Throws(IOException::class)
+    fun write(key: String, writer: (BufferedSink) -> ByteString?): Boolean
+
+    fun remove(key: String)
+
+    /**
+     * Removes a corrupted entry, keeping its bytes aside where possible so it can be inspected.
+     */
+    fun quarantine(key: String)
+
+    /**
+     * @return time in milliseconds when the entry was last written or [UNKNOWN].
+     */
+    fun lastModified(key: String): Long
+
+    /**
+     * @return size in bytes of the entry or [UNKNOWN].
+     */
+    fun size(key: String): Long
+}
+
+/**
+ * Keeps each entry in its own file, named after the key.
+ *
+ * With a [mFanOut] above [FLAT] files are spread over that many subdirs, picked from the key hash,
+ * so lookups do not slow down as the number of keys grows. Entries saved with a different fan-out,
+ * or before subdirs were used, are moved to their subdir once on [mExecutor]. Entries not moved yet
+ * are still read from where they are.
+ *
+ * Entries are written to a temp file synced and renamed over the entry file, so a process killed or
+ * a device losing power mid write never leaves a truncated entry. Temp files left behind by such a kill are deleted on [mExecutor].
+ */
+internal class FileStore @JvmOverloads constructor(
+        private val mDir: File,
+        private val mFanOut: Int = FLAT,
+        private val mExecutor: Executor? = null
+) : PersistentStore {
+
+    companion object {
+        private const val TAG = "FileStore"
+        private const val SUFFIX = "_livebox.json"
+        private const val TEMP_SUFFIX = ".tmp"
+        // Keeps the fan-out entries were last laid out with.
+        private const val LAYOUT_FILE = "layout"
+        private const val QUARANTINE_DIR = "quarantine"
+        private const val MAX_QUARANTINED = 16
+
+        // Every entry in the store dir.
+        const val FLAT = 0
+        const val MAX_FAN_OUT = 4096
+
+        private val SHARD_NAME = Regex("[0-9a-f]{1,3}")
+    }
+
+    // Fan-out entries not moved yet were saved with, null once every entry is in place.
+    @Volatile
+    private var mPreviousFanOut: Int? = null
+
+    // Moves and writes of the same file must not interleave.
+    private val mMoveLock = Any()
+
+    // Temp files older than this were left by a previous process, some file systems keep seconds only.
+    private val mOpenedAt = System.currentTimeMillis() - 2000
+
+    init {
+        if (mFanOut < FLAT || mFanOut > MAX_FAN_OUT) {
+            throw IllegalArgumentException("Fan-out must be between $FLAT and $MAX_FAN_OUT: $mFanOut")
+        }
+
+        val previous = readLayout()
+        if (previous != mFanOut) {
+            mPreviousFanOut = previous ?: FLAT
+        }
+
+        val executor = mExecutor
+        when {
+            executor != null -> executor.execute {
+                if (mPreviousFanOut != null) migrate()
+                deleteTempFiles()
+            }
+            mPreviousFanOut != null -> migrate()
+        }
+    }
+
+    override fun open(key: String): BufferedSource? {
+        val file = find(key) ?: return null
+        return if (file.canRead()) Okio.buffer(Okio.source(file)) else null
+    }
+
+    override fun peek(key: String, byteCount: Int): Buffer? {
+        val file = find(key) ?: return null
+
+        val buffer = Buffer()
+        Okio.source(file).use {
+            while (buffer.size() < byteCount) {
+                if (it.read(buffer, byteCount - buffer.size()) == -1L) break
+            }
+        }
+        return buffer
+    }
+
+    override fun map(key: String): ByteBuffer? {
+        val file = find(key) ?: return null
+        return RandomAccessFile(file, "r").use { it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length()) }
+    }
+
+    override fun write(key: String, entry: Buffer) {
+        write(key) { it.writeAll(entry); ByteString.EMPTY }
+    }
+
+    // Written to a temp file renamed over the entry, so mapped entries are never changed.
+    override fun write(key: String, writer: (BufferedSink) -> ByteString?): Boolean {
+        val file = file(key, mFanOut)
+        val dir = file.parentFile
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw IOException("Cannot create DiskPersistentDataSource output dir")
+        }
+
+        // Do not leave a partially written file behind. Unique name, the same key can be written concurrently.
+        val tempFile = File.createTempFile(file.name, TEMP_SUFFIX, dir)
+        var renamed = false
+        try {
+            // Synced before the rename, or a crash may leave the renamed file empty.
+            FileOutputStream(tempFile).use { out ->
+                val sink = Okio.buffer(Okio.sink(out))
+                val start = writer(sink) ?: return false
+                sink.flush()
+                val bytes = ByteBuffer.wrap(start.toByteArray())
+                while (bytes.hasRemaining()) {
+                    out.channel.write(bytes, bytes.position().toLong())
+                }
+                out.fd.sync()
+            }
+            synchronized(mMoveLock) {
+                if (!tempFile.renameTo(file)) {
+                    throw IOException("Cannot rename entry file for key: $key")
+                }
+                renamed = true
+                // Older entry must not be moved over this one.
+                previousFile(key)?.delete()
+            }
+            return true
+        } finally {
+            if (!renamed) {
+                tempFile.delete()
+            }
+        }
+    }
+
+    override fun remove(key: String) {
+        synchronized(mMoveLock) {
+            delete(file(key, mFanOut))
+            previousFile(key)?.let { delete(it) }
+        }
+    }
+
+    override fun quarantine(key: String) {
+        val file = find(key) ?: return
+        val dir = File(mDir, QUARANTINE_DIR)
+        synchronized(mMoveLock) {
+            if ((dir.exists() || dir.mkdirs()) && file.renameTo(File(dir, file.name))) {
+                Logger.e(TAG, "Quarantined entry for key: $key")
+            } else {
+                delete(file)
+            }
+        }
+
+        // Oldest first
+        val quarantined = dir.listFiles() ?: return
+        quarantined.sortBy { it.lastModified() }
+        quarantined.take(Math.max(0, quarantined.size - MAX_QUARANTINED)).forEach { it.delete() }
+    }
+
+    override fun lastModified(key: String): Long = find(key)?.lastModified()?.takeIf { it > 0 } ?: UNKNOWN
+
+    override fun size(key: String): Long = find(key)?.length() ?: UNKNOWN
+
+    override fun close() {}
+
+    // Entry file, where it is now if it was not moved yet.
+    private fun find(key: String): File? {
+        val file = file(key, mFanOut)
+        if (file.exists()) {
+            return file
+        }
+
+        val previous = previousFile(key) ?: return null
+        return when {
+            previous.exists() -> previous
+            // Moved meanwhile
+            file.exists() -> file
+            else -> null
+        }
+    }
+
+    private fun previousFile(key: String): File? {
+        val previousFanOut = mPreviousFanOut ?: return null
+        return file(key, previousFanOut)
+    }
+
+    private fun file(key: String, fanOut: Int): File =
+            if (fanOut == FLAT) File(mDir, key + SUFFIX) else File(File(mDir, shard(key, fanOut)), key + SUFFIX)
+
+    private fun shard(key: String, fanOut: Int): String =
+            Integer.toHexString((key.hashCode() and Int.MAX_VALUE) % fanOut)
+
+    private fun delete(file: File) {
+        if (file.exists()) {
+            file.delete()
+        }
+    }
+
+    // Store dir and its subdirs, of any fan-out.
+    private fun entryDirs(): List<File> {
+        val dirs = ArrayList<File>()
+        dirs.add(mDir)
+        mDir.listFiles(FileFilter { it.isDirectory && SHARD_NAME.matches(it.name) })?.let { dirs.addAll(it) }
+        return dirs
+    }
+
+    // Moves every entry to where the current fan-out puts it, then saves the layout.
+    private fun migrate() {
+        val start = System.currentTimeMillis()
+        var moved = 0
+
+        val dirs = entryDirs()
+        for (dir in dirs) {
+            val names = dir.list() ?: continue
+            for (name in names) {
+                if (!name.endsWith(SUFFIX)) continue
+                val source = File(dir, name)
+                val target = file(name.removeSuffix(SUFFIX), mFanOut)
+                if (source != target && move(source, target)) {
+                    moved++
+                }
+            }
+        }
+
+        // Dirs left empty by a previous fan-out.
+        dirs.filter { it != mDir && it.list()?.isEmpty() == true }.forEach { it.delete() }
+
+        try {
+            writeLayout()
+            mPreviousFanOut = null
+            Logger.d(TAG, "Moved entries: $moved in ${System.currentTimeMillis() - start}ms")
+        } catch (e: IOException) {
+            Logger.e(TAG, "Cannot save store layout, entries are moved again on next open", e)
+        }
+    }
+
+    private fun deleteTempFiles() {
+        var deleted = 0
+        for (dir in entryDirs()) {
+            val files = dir.listFiles(FileFilter { it.name.endsWith(TEMP_SUFFIX) }) ?: continue
+            for (file in files) {
+                if (file.lastModified() < mOpenedAt && file.delete()) {
+                    deleted++
+                }
+            }
+        }
+        if (deleted > 0) {
+            Logger.d(TAG, "Deleted temp files left by an interrupted write: $deleted")
+        }
+    }
+
+    // A newer entry at target wins.
+    private fun move(source: File, target: File): Boolean = synchronized(mMoveLock) {
+        if (target.exists()) {
+            source.delete()
+            return@synchronized false
+        }
+        val dir = target.parentFile
+        (dir.exists() || dir.mkdirs()) && source.renameTo(target)
+    }
+
+    // Stores without a layout file were only ever flat, null if the layout is unknown.
+    private fun readLayout(): Int? {
+        val file = File(mDir, LAYOUT_FILE)
+        if (!file.exists()) {
+            return FLAT
+        }
+        return try {
+            Okio.buffer(Okio.source(file)).use { it.readUtf8().trim().toInt() }
+        } catch (e: Exception) {
+            Logger.e(TAG, "Cannot read store layout", e)
+            null
+        }
+    }
+
+    private fun writeLayout() {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw IOException("Cannot create DiskPersistentDataSource output dir")
+        }
+        Okio.buffer(Okio.sink(File(mDir, LAYOUT_FILE))).use { it.writeUtf8(mFanOut.toString()) }
+    }
+
+    override fun toString() = "FileStore{Dir=$mDir, FanOut=$mFanOut}"
+}
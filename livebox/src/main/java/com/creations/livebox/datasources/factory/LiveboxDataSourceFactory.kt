@@ -5,6 +5,8 @@ import com.creations.livebox.datasources.disk.DiskLruDataSource
 import com.creations.livebox.datasources.disk.DiskPersistentDataSource
 import com.creations.livebox.datasources.factory.LiveboxDataSourceFactory.Sources.DISK_LRU
 import com.creations.livebox.datasources.factory.LiveboxDataSourceFactory.Sources.DISK_PERSISTENT
+import com.creations.livebox.datasources.factory.LiveboxDataSourceFactory.Sources.MEMORY_LRU
+import com.creations.livebox.datasources.memory.MemoryLruDataSource
 import com.creations.livebox_common.serializers.Serializer
 import java.lang.reflect.Type
 
@@ -17,13 +19,31 @@ class LiveboxDataSourceFactory<I>(private val mSerializer: Serializer, private v
     override fun <T> get(id: Int): LocalDataSource<I, T>? {
         var dataSource: LocalDataSource<I, T>? = null
         when (id) {
+            MEMORY_LRU -> dataSource = MemoryLruDataSource.create(mType)
             DISK_LRU -> dataSource = DiskLruDataSource.create(mSerializer, mType)
             DISK_PERSISTENT -> dataSource = DiskPersistentDataSource.create(mSerializer, mType)
         }
         return dataSource
     }
 
+    /**
+     * @return a source that keeps its entries in [partition], only [DISK_LRU] sources have partitions.
+     */
+    fun <T> get(id: Int, partition: String): LocalDataSource<I, T>? =
+            if (id == DISK_LRU) DiskLruDataSource.create(mSerializer, mType, partition) else null
+
+    /**
+     * @return a source that stores data with [serializer] instead of the configured one, only disk
+     * sources serialize data.
+     */
+    fun <T> get(id: Int, serializer: Serializer): LocalDataSource<I, T>? = when (id) {
+        DISK_LRU -> DiskLruDataSource.create(serializer, mType)
+        DISK_PERSISTENT -> DiskPersistentDataSource.create(serializer, mType)
+        else -> null
+    }
+
     object Sources {
+        const val MEMORY_LRU = 1000
         const val DISK_LRU = 2000
         const val DISK_PERSISTENT = 3000
     }
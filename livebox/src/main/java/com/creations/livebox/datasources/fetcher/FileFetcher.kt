@@ -4,6 +4,7 @@ import android.content.Context
 import com.creations.livebox_common.serializers.Serializer
 import com.creations.livebox_common.util.bufferedSource
 import io.reactivex.Observable
+import okio.BufferedSource
 import java.io.*
 import java.lang.reflect.Type
 
@@ -15,10 +16,15 @@ class FileFetcher<T> private constructor(
         private val mIs: InputStream,
         private val mType: Type,
         private val mSerializer: Serializer
-) : Fetcher<T> {
+) : RawFetcher<T> {
+
+    override val serializer: Serializer
+        get() = mSerializer
 
     override fun fetch(): Observable<T> =
-            Observable.fromCallable { mSerializer.deserialize<T>(bufferedSource(mIs), mType) }
+            fetchRaw().map { source -> source.use { mSerializer.deserialize<T>(it, mType) } }
+
+    override fun fetchRaw(): Observable<BufferedSource> = Observable.fromCallable { bufferedSource(mIs) }
 
     companion object {
 
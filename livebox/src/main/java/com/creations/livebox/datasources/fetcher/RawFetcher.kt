@@ -0,0 +1,23 @@
+package com.creations.livebox.datasources.fetcher
+
+import com.creations.livebox_common.serializers.Serializer
+import io.reactivex.Observable
+import okio.BufferedSource
+
+/**
+ * [Fetcher] that also gives access to the fetched bytes before they are deserialized.
+ *
+ * Livebox decodes the bytes once with [serializer] and saves them as is in every
+ * [com.creations.livebox.datasources.SerializedDataSource] using the same [serializer] instance,
+ * so fetched data is not serialized again before being saved.
+ */
+interface RawFetcher<T> : Fetcher<T> {
+
+    // Serializer the fetched bytes are encoded with.
+    val serializer: Serializer
+
+    /**
+     * Fetches the raw bytes, the emitted [BufferedSource] is consumed and closed by the caller.
+     */
+    fun fetchRaw(): Observable<BufferedSource>
+}
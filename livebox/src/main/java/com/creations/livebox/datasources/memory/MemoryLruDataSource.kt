@@ -0,0 +1,118 @@
+package com.creations.livebox.datasources.memory
+
+import com.creations.livebox.Livebox.Companion.TAG
+import com.creations.livebox.datasources.EntryMetadata
+import com.creations.livebox.datasources.EntryMetadata.Companion.UNKNOWN
+import com.creations.livebox.datasources.LocalDataSource
+import com.creations.livebox.datasources.MetadataReader
+import com.creations.livebox.datasources.TimestampedDataSource
+import com.creations.livebox_common.util.Logger
+import java.lang.reflect.Type
+
+/**
+ * Local data source that keeps already deserialized data in memory.
+ *
+ * Entries are shared by every [MemoryLruDataSource] instance and evicted in LRU order once the
+ * total weight, as computed by [MemoryLruConfig.weigher], goes over [MemoryLruConfig.maxSize].
+ * Cached instances are handed as is to every subscriber so they should be treated as immutable.
+ */
+class MemoryLruDataSource<I, O> private constructor(
+        override val type: Type
+) : LocalDataSource<I, O>, MetadataReader, TimestampedDataSource<I> {
+
+    companion object {
+        private const val FORMAT_VERSION = 1
+        lateinit var config: MemoryLruConfig
+
+        @JvmStatic
+        fun <I, O> create(type: Type): MemoryLruDataSource<I, O> {
+            LiveboxMemoryCache.configure(config)
+            return MemoryLruDataSource(type)
+        }
+    }
+
+    override fun read(key: String): O? {
+        val entry = LiveboxMemoryCache[key]
+        Logger.d(TAG, "Read from memory cache is present: %s with key: %s", entry != null, key)
+
+        // Same key used with a different type, ignore it.
+        if (entry == null || entry.type != type) {
+            return null
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        return entry.data as O
+    }
+
+    override fun readMetadata(key: String): EntryMetadata? {
+        val entry = LiveboxMemoryCache[key]
+        if (entry == null || entry.type != type) {
+            return null
+        }
+        return EntryMetadata(entry.timestamp, UNKNOWN, FORMAT_VERSION)
+    }
+
+    override fun save(key: String, input: I) = save(key, input, System.currentTimeMillis())
+
+    override fun save(key: String, input: I, timestamp: Long) {
+        val data: Any = input ?: return
+        val saved = LiveboxMemoryCache.put(key, MemoryEntry(type, data, timestamp))
+        Logger.d(TAG, "Save to memory cache with key: %s saved: %s", key, saved)
+    }
+
+    override fun clear(key: String) {
+        Logger.d(TAG, "Clear key: %s", key)
+        LiveboxMemoryCache.clear(key)
+    }
+
+    override fun toString() = "MemoryLruDataSource"
+}
+
+internal class MemoryEntry(val type: Type, val data: Any, val timestamp: Long)
+
+private object LiveboxMemoryCache {
+
+    private var config: MemoryLruConfig? = null
+
+    @Volatile
+    private lateinit var memoryCache: WeightedLruCache<String, MemoryEntry>
+
+    // Creates a new cache when a different config is passed, previous entries are dropped.
+    @Synchronized
+    internal fun configure(newConfig: MemoryLruConfig) {
+        if (newConfig === config) {
+            return
+        }
+        config = newConfig
+        val weigher = newConfig.weigher
+        memoryCache = WeightedLruCache(newConfig.maxSize) { key, entry -> weigher.weigh(key, entry.data) }
+    }
+
+    internal fun put(key: String, entry: MemoryEntry): Boolean = memoryCache.put(key, entry)
+
+    internal operator fun get(key: String): MemoryEntry? = memoryCache[key]
+
+    internal fun clear(key: String) {
+        memoryCache.remove(key)
+    }
+}
+
+class MemoryLruConfig @JvmOverloads constructor(
+        maxSize: Long = defaultMaxSize(),
+        val weigher: Weigher = Weighers.estimatedBytes()
+) {
+    val maxSize: Long = Math.max(0, maxSize)
+
+    override fun toString(): String =
+            "MemoryLruConfig{" +
+                    "MaxSize=" + maxSize +
+                    ", Weigher=" + weigher +
+                    '}'
+
+    companion object {
+        private const val DEFAULT_MEMORY_CACHE_FRACTION = 16 // 1/16 of max heap
+
+        @JvmStatic
+        fun defaultMaxSize(): Long = Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_CACHE_FRACTION
+    }
+}
@@ -0,0 +1,200 @@
+package com.creations.livebox.datasources.memory
+
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Computes the weight of a cached entry, used by [MemoryLruDataSource] to bound its size.
+ */
+interface Weigher {
+    fun weigh(key: String, value: Any): Long
+}
+
+/**
+ * Built-in [Weigher] implementations.
+ */
+object Weighers {
+
+    /**
+     * Every entry weighs 1, max size of the cache is the number of entries.
+     */
+    @JvmStatic
+    fun entryCount(): Weigher = EntryCountWeigher
+
+    /**
+     * Entries weigh their estimated retained size in bytes, see [ObjectSizeEstimator].
+     */
+    @JvmStatic
+    fun estimatedBytes(): Weigher = EstimatedBytesWeigher
+
+    private object EntryCountWeigher : Weigher {
+        override fun weigh(key: String, value: Any): Long = 1
+        override fun toString() = "EntryCountWeigher"
+    }
+
+    private object EstimatedBytesWeigher : Weigher {
+        override fun weigh(key: String, value: Any): Long = ObjectSizeEstimator.estimate(value)
+        override fun toString() = "EstimatedBytesWeigher"
+    }
+}
+
+/**
+ * Estimates the retained size of an object graph.
+ *
+ * Sizes assume a 32 bit layout (12 bytes object header, 4 bytes references, 8 bytes alignment)
+ * which is what ART uses, so values are an approximation and not an exact measure.
+ * Collections, maps and arrays are walked through their public API. Only app classes are walked
+ * with reflection, platform internals are not accessible on Android P+ and recent JVMs.
+ */
+internal object ObjectSizeEstimator {
+
+    private const val OBJECT_HEADER = 12L
+    private const val ARRAY_HEADER = 16L
+    private const val REFERENCE = 4L
+    private const val ALIGNMENT = 8L
+    // A HashMap.Node like entry: hash, key, value and next
+    private const val MAP_ENTRY = 32L
+
+    private val PLATFORM_PACKAGES = arrayOf("java.", "javax.", "android.", "dalvik.", "sun.")
+
+    // Instance fields per class, resolved once.
+    private val mLayouts = ConcurrentHashMap<Class<*>, Layout>()
+
+    private class Layout(val shallowSize: Long, val references: Array<Field>)
+
+    fun estimate(root: Any): Long {
+        val visited = IdentityHashMap<Any, Boolean>()
+        val pending = ArrayDeque<Any>()
+        pending.push(root)
+
+        var size = 0L
+        while (!pending.isEmpty()) {
+            val obj = pending.pop()
+            if (visited.put(obj, true) != null) {
+                continue
+            }
+
+            val aClass = obj.javaClass
+            size += when {
+                obj is String -> align(OBJECT_HEADER + 3 * 4) + align(ARRAY_HEADER + 2L * obj.length)
+                isShared(aClass) -> 0
+                isBoxed(aClass) -> align(OBJECT_HEADER + 8)
+                aClass.isArray -> sizeOfArray(obj, pending)
+                obj is Collection<*> -> sizeOfCollection(obj, pending)
+                obj is Map<*, *> -> sizeOfMap(obj, pending)
+                isPlatform(aClass) -> OBJECT_HEADER
+                else -> sizeOfObject(obj, pending)
+            }
+        }
+        return size
+    }
+
+    private fun sizeOfArray(array: Any, pending: ArrayDeque<Any>): Long {
+        val length = java.lang.reflect.Array.getLength(array)
+        val componentType = array.javaClass.componentType
+        if (componentType.isPrimitive) {
+            return align(ARRAY_HEADER + length * primitiveSize(componentType))
+        }
+
+        for (i in 0 until length) {
+            java.lang.reflect.Array.get(array, i)?.let { pending.push(it) }
+        }
+        return align(ARRAY_HEADER + length * REFERENCE)
+    }
+
+    // The collection and its backing array, elements are weighed on their own.
+    private fun sizeOfCollection(collection: Collection<*>, pending: ArrayDeque<Any>): Long {
+        for (element in collection) {
+            element?.let { pending.push(it) }
+        }
+        return align(OBJECT_HEADER + 2 * 4) + align(ARRAY_HEADER + collection.size * REFERENCE)
+    }
+
+    // The map, its table and an entry for each mapping, keys and values are weighed on their own.
+    private fun sizeOfMap(map: Map<*, *>, pending: ArrayDeque<Any>): Long {
+        for ((key, value) in map) {
+            key?.let { pending.push(it) }
+            value?.let { pending.push(it) }
+        }
+        return align(OBJECT_HEADER + 4 * 4) + align(ARRAY_HEADER + map.size * REFERENCE) + map.size * MAP_ENTRY
+    }
+
+    private fun sizeOfObject(obj: Any, pending: ArrayDeque<Any>): Long {
+        val layout = layoutOf(obj.javaClass)
+        for (field in layout.references) {
+            try {
+                field.get(obj)?.let { pending.push(it) }
+            } catch (e: IllegalAccessException) {
+                // Field is not accessible, count only its reference.
+            }
+        }
+        return layout.shallowSize
+    }
+
+    private fun layoutOf(aClass: Class<*>): Layout = mLayouts[aClass] ?: createLayout(aClass).also {
+        mLayouts.putIfAbsent(aClass, it)
+    }
+
+    private fun createLayout(aClass: Class<*>): Layout {
+        var size = OBJECT_HEADER
+        val references = ArrayList<Field>()
+
+        var current: Class<*>? = aClass
+        while (current != null) {
+            for (field in current.declaredFields) {
+                if (Modifier.isStatic(field.modifiers)) {
+                    continue
+                }
+
+                val type = field.type
+                if (type.isPrimitive) {
+                    size += primitiveSize(type)
+                    continue
+                }
+
+                size += REFERENCE
+                // Fields inherited from platform classes are counted but not walked
+                if (type == Class::class.java || isPlatform(current) || !trySetAccessible(field)) {
+                    continue
+                }
+                references.add(field)
+            }
+            current = current.superclass
+        }
+
+        return Layout(align(size), references.toTypedArray())
+    }
+
+    private fun trySetAccessible(field: Field): Boolean = try {
+        field.isAccessible = true
+        true
+    } catch (e: RuntimeException) {
+        // Security manager or module system refused access.
+        false
+    }
+
+    private fun isPlatform(aClass: Class<*>): Boolean {
+        val name = aClass.name
+        return PLATFORM_PACKAGES.any { name.startsWith(it) }
+    }
+
+    // Enum constants and classes are shared by every instance, they are not retained by the entry.
+    private fun isShared(aClass: Class<*>): Boolean =
+            aClass.isEnum || aClass.superclass?.isEnum == true || aClass == Class::class.java
+
+    private fun isBoxed(aClass: Class<*>): Boolean =
+            Number::class.java.isAssignableFrom(aClass) && aClass.name.startsWith("java.lang.")
+                    || aClass == java.lang.Boolean::class.java
+                    || aClass == java.lang.Character::class.java
+
+    private fun primitiveSize(type: Class<*>): Long = when (type) {
+        java.lang.Long.TYPE, java.lang.Double.TYPE -> 8
+        java.lang.Integer.TYPE, java.lang.Float.TYPE -> 4
+        java.lang.Short.TYPE, java.lang.Character.TYPE -> 2
+        else -> 1
+    }
+
+    private fun align(size: Long): Long = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT
+}
@@ -0,0 +1,74 @@
+package com.creations.livebox.datasources.memory
+
+import java.util.*
+
+/**
+ * Thread safe LRU cache bounded by the total weight of its entries.
+ *
+ * The weight of each entry is computed once, when the entry is inserted, using [mWeigher].
+ * When the total weight goes over [maxWeight] the least recently used entries are evicted.
+ * Entries heavier than [maxWeight] are never cached.
+ */
+internal class WeightedLruCache<K, V : Any>(
+        val maxWeight: Long,
+        private val mWeigher: (K, V) -> Long
+) {
+
+    private class Node<V>(val value: V, val weight: Long)
+
+    // Access ordered map, iteration starts at the least recently used entry.
+    private val mMap = LinkedHashMap<K, Node<V>>(16, 0.75f, true)
+
+    private var mWeight = 0L
+
+    @Synchronized
+    operator fun get(key: K): V? = mMap[key]?.value
+
+    /**
+     * Inserts [value] replacing any previous value for [key].
+     * @return false if [value] is too heavy to be cached.
+     */
+    fun put(key: K, value: V): Boolean {
+        // Weigh outside the lock, weighers may walk big object graphs.
+        val weight = Math.max(0, mWeigher(key, value))
+
+        synchronized(this) {
+            mMap.remove(key)?.let { mWeight -= it.weight }
+
+            if (weight > maxWeight) {
+                return false
+            }
+
+            mMap[key] = Node(value, weight)
+            mWeight += weight
+            trimToWeight(maxWeight)
+        }
+        return true
+    }
+
+    @Synchronized
+    fun remove(key: K): V? = mMap.remove(key)?.let {
+        mWeight -= it.weight
+        it.value
+    }
+
+    @Synchronized
+    fun weight(): Long = mWeight
+
+    @Synchronized
+    fun size(): Int = mMap.size
+
+    @Synchronized
+    fun evictAll() {
+        mMap.clear()
+        mWeight = 0
+    }
+
+    private fun trimToWeight(weight: Long) {
+        val iterator = mMap.entries.iterator()
+        while (mWeight > weight && iterator.hasNext()) {
+            mWeight -= iterator.next().value.weight
+            iterator.remove()
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.creations.livebox.validator
 
 import com.creations.livebox.Livebox
+import com.creations.livebox.datasources.EntryMetadata
+import com.creations.livebox.datasources.EntryMetadata.Companion.UNKNOWN
 import java.util.concurrent.TimeUnit.*
 
 /**
@@ -8,23 +10,48 @@ import java.util.concurrent.TimeUnit.*
  * sergioserra99@gmail.com
  */
 class AgeValidator<R> private constructor(
-        private val mJournal: Journal?,
+        // Resolved when validating, the journal may be opened in background after init.
+        private val mJournal: () -> Journal?,
         // Time to live before expiring the resource
         private val ttl: Long
-) : Validator<R> {
+) : Validator<R>, MetadataValidator {
 
-    override fun validate(key: String, item: R): Boolean {
+    override fun validate(key: String, item: R): Boolean = isValid(lastTimestamp(key, null), 0)
 
-        if (mJournal == null) return true
+    override fun validateMetadata(key: String, metadata: EntryMetadata): Boolean =
+            isValid(lastTimestamp(key, metadata), 0)
 
-        val lastTimestampOpt = mJournal.read(key)
-        // By default if no timestamp is available resource is valid
-        return lastTimestampOpt.isAbsent || lastTimestampOpt.get() + ttl >= System.currentTimeMillis()
+    /**
+     * Checks if the resource expired less than [window] milliseconds ago.
+     */
+    @JvmOverloads
+    fun isWithinStaleWindow(key: String, window: Long, metadata: EntryMetadata? = null): Boolean =
+            isValid(lastTimestamp(key, metadata), window)
+
+    // By default if no timestamp is available resource is valid
+    private fun isValid(timestamp: Long, window: Long): Boolean =
+            timestamp == UNKNOWN || timestamp + ttl + window >= System.currentTimeMillis()
+
+    // Entries keep the time they were fetched, the journal is only used when it is unknown.
+    private fun lastTimestamp(key: String, metadata: EntryMetadata?): Long {
+        if (metadata != null && metadata.timestamp != UNKNOWN) {
+            return metadata.timestamp
+        }
+
+        // Not using ?. on the journal, it would box the timestamp.
+        val journal = mJournal()
+        if (journal != null) {
+            val lastTimestamp = journal.readTimestamp(key)
+            if (lastTimestamp != Journal.NO_TIMESTAMP) {
+                return lastTimestamp
+            }
+        }
+        return UNKNOWN
     }
 
     companion object {
         @JvmStatic
-        fun <T> create(ttl: Long): AgeValidator<T> = AgeValidator(Livebox.journal, ttl)
+        fun <T> create(ttl: Long): AgeValidator<T> = AgeValidator({ Livebox.journal }, ttl)
 
         @JvmStatic
         fun <T> minutes(minutes: Int): AgeValidator<T> = create(MINUTES.toMillis(minutes.toLong()))
@@ -0,0 +1,33 @@
+package com.creations.livebox.validator;
+
+import java.io.Closeable;
+
+/**
+ * Storage used by {@link Journal} to keep the timestamp of the last fetch for each key.
+ * Implementations must be thread safe.
+ */
+interface JournalStore extends Closeable {
+
+    /**
+     * @return the timestamp for key or {@link TimestampIndex#NO_TIMESTAMP} if there's none.
+     */
+    long read(String key);
+
+    /**
+     * Saves timestamp for key, unless a newer one is already saved.
+     */
+    void save(String key, long timestamp);
+
+    /**
+     * Writes pending updates to disk.
+     */
+    void flush();
+
+    int size();
+
+    /**
+     * Writes pending updates and releases resources, the store cannot be used afterwards.
+     */
+    @Override
+    void close();
+}
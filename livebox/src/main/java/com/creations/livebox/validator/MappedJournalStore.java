@@ -0,0 +1,347 @@
+package com.creations.livebox.validator;
+
+import com.creations.livebox_common.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.creations.livebox.util.io.UtilsKt.closeQuietly;
+import static com.creations.livebox.validator.TimestampIndex.NO_TIMESTAMP;
+
+/**
+ * {@link JournalStore} that keeps timestamps in a memory mapped file.
+ * <p>
+ * The file is an open addressing hash table of fixed width records. It is mapped as is when the
+ * store is created, so there's nothing to parse on startup, and lookups probe the mapped records.
+ * Keys are not stored, only a 64 bit hash of them: two keys with the same hash would share a
+ * timestamp, with 100k keys the odds of any collision are around 1 in 3 billion.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ * header: magic (int) | version (int) | capacity (int) | size (int) | reserved (16 bytes)
+ * record: key hash (long) | timestamp (long) | flags (int) | padding (int)
+ * </pre>
+ * Once the table is half full it is rehashed into a temp file twice as large that is renamed over
+ * the journal. Writes go straight to the mapping and reach disk when the pages are written back
+ * by the OS or on {@link #flush()}.
+ * <p>
+ * If the file cannot be mapped timestamps are kept in a {@link TimestampIndex} in memory.
+ * <p>
+ * Readers share a lock, writers hold it exclusively: plain reads of the mapping are not ordered by
+ * anything else, so this is what keeps a record from being seen half written.
+ */
+final class MappedJournalStore implements JournalStore {
+
+    private static final String TAG = "MappedJournalStore";
+    static final String FILENAME = "journal_livebox.bin";
+    private static final String TEMP_FILENAME = FILENAME + ".tmp";
+
+    private static final int MAGIC = 0x4C424A4E; // LBJN
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+
+    private static final int RECORD_SIZE = 24;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int FLAGS_OFFSET = 16;
+    private static final int FLAG_OCCUPIED = 1;
+
+    private static final float MAX_LOAD_FACTOR = 0.5f;
+    private static final int MIN_CAPACITY = 64;
+    // Keeps record offsets within an int.
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private static final class Table {
+        final MappedByteBuffer buffer;
+        final int capacity;
+
+        Table(MappedByteBuffer buffer, int capacity) {
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+    }
+
+    private final File mDir, mFile, mTempFile;
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final Lock mReadLock = mLock.readLock();
+    private final Lock mWriteLock = mLock.writeLock();
+
+    // Null when the file could not be mapped, mFallback is used instead.
+    private volatile Table mTable;
+    private volatile int mSize;
+    private TimestampIndex mFallback;
+
+    MappedJournalStore(File dir, int expectedSize) {
+        mDir = dir;
+        mFile = new File(dir, FILENAME);
+        mTempFile = new File(dir, TEMP_FILENAME);
+        try {
+            open(expectedSize);
+        } catch (IOException e) {
+            Logger.e(TAG, "Cannot map journal file, keep timestamps in memory", e);
+            mFallback = new TimestampIndex(expectedSize);
+        }
+    }
+
+    private void open(int expectedSize) throws IOException {
+        if (!mDir.exists() && !mDir.mkdir()) {
+            throw new IOException("Cannot create journal output dir");
+        }
+
+        // Left behind while growing, journal file is still intact.
+        if (mTempFile.exists()) {
+            mTempFile.delete();
+        }
+
+        if (mFile.exists()) {
+            final long length = mFile.length();
+            if (length >= HEADER_SIZE) {
+                final MappedByteBuffer buffer = map(mFile, length);
+                if (isValid(buffer, length)) {
+                    mTable = new Table(buffer, buffer.getInt(CAPACITY_OFFSET));
+                    mSize = buffer.getInt(SIZE_OFFSET);
+                    Logger.d(TAG, "Mapped journal with values: " + mSize);
+                    return;
+                }
+            }
+            Logger.e(TAG, "Journal file is not valid, recreate it");
+        }
+
+        final int capacity = capacityFor(expectedSize);
+        final MappedByteBuffer buffer = createTable(capacity);
+        replaceFile(buffer);
+        mTable = new Table(buffer, capacity);
+        mSize = 0;
+    }
+
+    @Override
+    public long read(String key) {
+        final long hash = hash(key);
+        mReadLock.lock();
+        try {
+            final Table table = mTable;
+            return table == null ? mFallback.get(key) : probe(table, hash);
+        } finally {
+            mReadLock.unlock();
+        }
+    }
+
+    private static long probe(Table table, long hash) {
+        final ByteBuffer buffer = table.buffer;
+        final int mask = table.capacity - 1;
+        int slot = (int) hash & mask;
+        while (true) {
+            final int offset = recordOffset(slot);
+            if (!isOccupied(buffer, offset)) {
+                return NO_TIMESTAMP;
+            }
+            if (buffer.getLong(offset) == hash) {
+                return buffer.getLong(offset + TIMESTAMP_OFFSET);
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public void save(String key, long timestamp) {
+        final long hash = hash(key);
+        mWriteLock.lock();
+        try {
+            Table table = mTable;
+            if (table == null) {
+                final long oldTimestamp = mFallback.get(key);
+                if (oldTimestamp == NO_TIMESTAMP || timestamp > oldTimestamp) {
+                    mFallback.put(key, timestamp);
+                }
+                return;
+            }
+
+            int offset = findRecord(table.buffer, table.capacity, hash);
+            if (isOccupied(table.buffer, offset)) {
+                if (timestamp > table.buffer.getLong(offset + TIMESTAMP_OFFSET)) {
+                    table.buffer.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+                }
+                return;
+            }
+
+            if (mSize + 1 > table.capacity * MAX_LOAD_FACTOR && grow(table)) {
+                table = mTable;
+                offset = findRecord(table.buffer, table.capacity, hash);
+            }
+
+            // Could not grow, at least one record must be kept empty to end probing.
+            if (mSize + 1 >= table.capacity) {
+                Logger.e(TAG, "Journal is full, drop timestamp for key: " + key);
+                return;
+            }
+
+            writeRecord(table.buffer, offset, hash, timestamp);
+            mSize = mSize + 1;
+            table.buffer.putInt(SIZE_OFFSET, mSize);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        final Table table = mTable;
+        if (table != null) {
+            table.buffer.force();
+        }
+    }
+
+    // The mapping is released when garbage collected.
+    // Reads and saves made afterwards go to an empty in memory index.
+    @Override
+    public void close() {
+        mWriteLock.lock();
+        try {
+            final Table table = mTable;
+            if (table == null) {
+                return;
+            }
+            table.buffer.force();
+            mFallback = new TimestampIndex(0);
+            mTable = null;
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return mTable == null ? mFallback.size() : mSize;
+    }
+
+    // Must hold the write lock. Returns false if the table could not be grown.
+    private boolean grow(Table table) {
+        final int capacity = table.capacity * 2;
+        if (capacity > MAX_CAPACITY) {
+            return false;
+        }
+
+        try {
+            final MappedByteBuffer buffer = createTable(capacity);
+            for (int slot = 0; slot < table.capacity; slot++) {
+                final int offset = recordOffset(slot);
+                if (isOccupied(table.buffer, offset)) {
+                    final long hash = table.buffer.getLong(offset);
+                    final long timestamp = table.buffer.getLong(offset + TIMESTAMP_OFFSET);
+                    writeRecord(buffer, findRecord(buffer, capacity, hash), hash, timestamp);
+                }
+            }
+            buffer.putInt(SIZE_OFFSET, mSize);
+            replaceFile(buffer);
+
+            mTable = new Table(buffer, capacity);
+            Logger.d(TAG, "Journal grown to capacity: " + capacity);
+            return true;
+        } catch (IOException e) {
+            Logger.e(TAG, "Cannot grow journal", e);
+            mTempFile.delete();
+            return false;
+        }
+    }
+
+    // Creates an empty table in the temp file.
+    private MappedByteBuffer createTable(int capacity) throws IOException {
+        final MappedByteBuffer buffer = map(mTempFile, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putInt(SIZE_OFFSET, 0);
+        return buffer;
+    }
+
+    // Replaces the journal with the table in the temp file, the mapping stays valid.
+    private void replaceFile(MappedByteBuffer buffer) throws IOException {
+        buffer.force();
+        if (!mTempFile.renameTo(mFile)) {
+            throw new IOException("Cannot replace journal file");
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    private static boolean isValid(ByteBuffer buffer, long length) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+            return false;
+        }
+        final int capacity = buffer.getInt(CAPACITY_OFFSET);
+        final int size = buffer.getInt(SIZE_OFFSET);
+        return capacity >= MIN_CAPACITY && capacity <= MAX_CAPACITY
+                && Integer.bitCount(capacity) == 1
+                && length == HEADER_SIZE + (long) capacity * RECORD_SIZE
+                && size >= 0 && size < capacity;
+    }
+
+    // Returns the offset of the record for hash or of the empty record where it should be written.
+    private static int findRecord(ByteBuffer buffer, int capacity, long hash) {
+        final int mask = capacity - 1;
+        int slot = (int) hash & mask;
+        while (true) {
+            final int offset = recordOffset(slot);
+            if (!isOccupied(buffer, offset) || buffer.getLong(offset) == hash) {
+                return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static void writeRecord(ByteBuffer buffer, int offset, long hash, long timestamp) {
+        buffer.putLong(offset, hash);
+        buffer.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        buffer.putInt(offset + FLAGS_OFFSET, FLAG_OCCUPIED);
+    }
+
+    private static boolean isOccupied(ByteBuffer buffer, int offset) {
+        return (buffer.getInt(offset + FLAGS_OFFSET) & FLAG_OCCUPIED) != 0;
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD_FACTOR < expectedSize && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // 64 bit FNV-1a over the key chars, with a final mix so every bit depends on every char.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
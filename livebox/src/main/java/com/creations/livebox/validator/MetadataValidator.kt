@@ -0,0 +1,13 @@
+package com.creations.livebox.validator
+
+import com.creations.livebox.datasources.EntryMetadata
+
+/**
+ * Implemented by [Validator]s that can decide if an entry is valid looking only at its [EntryMetadata].
+ *
+ * When the data source provides metadata, the result of [validateMetadata] is final and
+ * [Validator.validate] is not called.
+ */
+interface MetadataValidator {
+    fun validateMetadata(key: String, metadata: EntryMetadata): Boolean
+}
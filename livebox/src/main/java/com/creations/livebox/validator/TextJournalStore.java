@@ -0,0 +1,328 @@
+package com.creations.livebox.validator;
+
+import com.creations.livebox_common.util.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Scanner;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.creations.livebox.util.io.UtilsKt.closeQuietly;
+
+/**
+ * {@link JournalStore} that keeps timestamps in an append only text file, one "key:timestamp"
+ * line for each update. The whole file is parsed when created.
+ * <p>
+ * Updates are group committed: they are buffered and written together, with a single flush,
+ * once {@link #MAX_BATCH_SIZE} updates are pending or {@link #COMMIT_DELAY_MS} after the first one
+ * when the executor is a {@link ScheduledExecutorService}. Updates to the same key in a batch are
+ * written once. Call {@link #flush()} to write pending updates right away.
+ * <p>
+ * When more than {@link #MAX_DEAD_RATIO} of the records in the file are outdated, the file is
+ * compacted in background by writing the live records to a temp file that replaces the journal
+ * with an atomic rename.
+ * <p>
+ * Reads go to a {@link TimestampIndex} without taking any lock, writers are serialized.
+ */
+final class TextJournalStore implements JournalStore {
+
+    private static final String TAG = "TextJournalStore";
+    private static final String FILENAME = "journal_livebox.txt";
+    private static final String TEMP_FILENAME = FILENAME + ".tmp";
+    private static final String SEPARATOR = ":";
+    private static final String LINE_BREAK = System.getProperty("line.separator");
+
+    // Group commit thresholds
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long COMMIT_DELAY_MS = 500;
+
+    // Compaction thresholds
+    private static final int MIN_COMPACTION_RECORDS = 512;
+    private static final float MAX_DEAD_RATIO = 0.5f;
+
+    private final Executor mExecutor;
+    // Shut down on close when created by the store.
+    private final boolean mOwnsExecutor;
+    // Timestamps are never evicted, the index grows with the number of keys.
+    private final TimestampIndex mTimestamps;
+    private final File mOutputFileDir, mOutputFile, mTempFile;
+    // Serializes writers, readers never take it.
+    private final Lock mWriteLock = new ReentrantLock();
+
+    // Updates waiting to be written, guarded by mWriteLock.
+    private TimestampIndex mPending = new TimestampIndex(MAX_BATCH_SIZE);
+    private boolean mCommitScheduled;
+
+    // File state, guarded by mFileLock.
+    private final Object mFileLock = new Object();
+    private Writer mWriter;
+    private int mRecordsOnDisk;
+
+    private final Runnable mCommitRun = new Runnable() {
+        @Override
+        public void run() {
+            commit();
+        }
+    };
+
+    private final Runnable mCompactRun = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mFileLock) {
+                compact();
+            }
+        }
+    };
+
+    private static String buildLine(String key, long timestamp) {
+        return key + SEPARATOR + timestamp;
+    }
+
+    TextJournalStore(File file, Executor executor, int expectedSize) {
+        this(file, executor, expectedSize, false);
+    }
+
+    private TextJournalStore(File file, Executor executor, int expectedSize, boolean ownsExecutor) {
+        mExecutor = executor;
+        mOwnsExecutor = ownsExecutor;
+        mOutputFileDir = file;
+        mOutputFile = new File(mOutputFileDir, FILENAME);
+        mTempFile = new File(mOutputFileDir, TEMP_FILENAME);
+        mTimestamps = new TimestampIndex(expectedSize);
+        rebuildFromDisk();
+        synchronized (mFileLock) {
+            mWriter = createWriter();
+        }
+
+        // Eliminate duplicate entries
+        if (shouldCompact()) {
+            mExecutor.execute(mCompactRun);
+        }
+    }
+
+    // Writes on a daemon thread of its own, shut down on close.
+    static TextJournalStore withOwnExecutor(File file, int expectedSize) {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "livebox-journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Pending updates are committed by close.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return new TextJournalStore(file, executor, expectedSize, true);
+    }
+
+    private Writer createWriter() {
+        try {
+            return new BufferedWriter(new FileWriter(mOutputFile, true));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private void rebuildFromDisk() {
+
+        if (!mOutputFileDir.exists() && !mOutputFileDir.mkdir()) {
+            Logger.e(TAG, "Cannot create journal output dir");
+            return;
+        }
+
+        // Left behind by an interrupted compaction, journal file is still intact.
+        if (mTempFile.exists()) {
+            mTempFile.delete();
+        }
+
+        if (!mOutputFile.exists()) {
+            Logger.d(TAG, "No journal file found");
+            return;
+        }
+
+        try {
+            final Scanner scan = new Scanner(mOutputFile);
+            while (scan.hasNextLine()) {
+                final String[] values = scan.nextLine().split(SEPARATOR);
+                mTimestamps.put(values[0], Long.parseLong(values[1]));
+                mRecordsOnDisk++;
+            }
+            scan.close();
+            Logger.d(TAG, "Rebuilt from disk values: " + mTimestamps.size());
+        } catch (Exception e) {
+            //
+        }
+
+    }
+
+    @Override
+    public long read(String key) {
+        return mTimestamps.get(key);
+    }
+
+    @Override
+    public void save(String key, long timestamp) {
+
+        boolean commitNow = false;
+        boolean scheduleCommit = false;
+        mWriteLock.lock();
+        try {
+            final long oldTimestamp = mTimestamps.get(key);
+            if (oldTimestamp == TimestampIndex.NO_TIMESTAMP || timestamp > oldTimestamp) {
+                mTimestamps.put(key, timestamp);
+                mPending.put(key, timestamp);
+
+                if (mPending.size() == MAX_BATCH_SIZE) {
+                    commitNow = true;
+                } else if (!mCommitScheduled) {
+                    scheduleCommit = true;
+                }
+                mCommitScheduled = true;
+            }
+        } finally {
+            mWriteLock.unlock();
+        }
+
+        // Executed outside the lock, executor may run it on this thread.
+        try {
+            if (commitNow) {
+                mExecutor.execute(mCommitRun);
+            } else if (scheduleCommit) {
+                if (mExecutor instanceof ScheduledExecutorService) {
+                    ((ScheduledExecutorService) mExecutor).schedule(mCommitRun, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+                } else {
+                    mExecutor.execute(mCommitRun);
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            // Saved after close, kept in memory only.
+            Logger.e(TAG, "Journal is closed, cannot write timestamp for key: " + key);
+        }
+    }
+
+    @Override
+    public void flush() {
+        commit();
+    }
+
+    @Override
+    public void close() {
+        synchronized (mFileLock) {
+            commit();
+            closeQuietly(mWriter);
+            mWriter = null;
+        }
+        if (mOwnsExecutor) {
+            ((ExecutorService) mExecutor).shutdown();
+        }
+    }
+
+    @Override
+    public int size() {
+        return mTimestamps.size();
+    }
+
+    private void commit() {
+        synchronized (mFileLock) {
+            final TimestampIndex batch;
+            mWriteLock.lock();
+            try {
+                batch = mPending;
+                if (batch.size() == 0) {
+                    return;
+                }
+                mPending = new TimestampIndex(MAX_BATCH_SIZE);
+                mCommitScheduled = false;
+            } finally {
+                mWriteLock.unlock();
+            }
+
+            if (mWriter == null) {
+                return;
+            }
+
+            try {
+                writeEntries(mWriter, batch);
+                mWriter.flush();
+                mRecordsOnDisk += batch.size();
+                Logger.d(TAG, "Wrote values: " + batch.size());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if (shouldCompact()) {
+                compact();
+            }
+        }
+    }
+
+    private boolean shouldCompact() {
+        if (mRecordsOnDisk < MIN_COMPACTION_RECORDS) {
+            return false;
+        }
+        final int deadRecords = mRecordsOnDisk - size();
+        return deadRecords > mRecordsOnDisk * MAX_DEAD_RATIO;
+    }
+
+    // Must hold mFileLock. Pending updates are in the snapshot and will be appended again
+    // when committed, that is harmless.
+    private void compact() {
+        final TimestampIndex snapshot;
+        mWriteLock.lock();
+        try {
+            snapshot = mTimestamps.copy();
+        } finally {
+            mWriteLock.unlock();
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mTempFile);
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(fos));
+            writeEntries(writer, snapshot);
+            writer.flush();
+            // Make sure data is on disk before replacing the journal.
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+
+            closeQuietly(mWriter);
+            if (mTempFile.renameTo(mOutputFile)) {
+                mRecordsOnDisk = snapshot.size();
+                Logger.d(TAG, "Compacted journal to values: " + snapshot.size());
+            } else {
+                Logger.e(TAG, "Cannot replace journal file with compacted one");
+                mTempFile.delete();
+            }
+            mWriter = createWriter();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(fos);
+            mTempFile.delete();
+        }
+    }
+
+    private static void writeEntries(Writer writer, TimestampIndex entries) throws IOException {
+        for (int i = 0; i < entries.capacity(); i++) {
+            final String key = entries.keyAt(i);
+            if (key != null) {
+                writer.write(buildLine(key, entries.valueAt(i)));
+                writer.write(LINE_BREAK);
+            }
+        }
+    }
+}
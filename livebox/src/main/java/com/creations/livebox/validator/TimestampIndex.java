@@ -0,0 +1,160 @@
+package com.creations.livebox.validator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open addressing hash map from String keys to primitive long timestamps.
+ * <p>
+ * Keys and values are kept in two parallel arrays and collisions are resolved with linear probing,
+ * so no entry objects are allocated and values are never boxed. The table doubles once it is
+ * {@link #MAX_LOAD_FACTOR} full and entries are never evicted.
+ * <p>
+ * Memory footprint: each slot takes a key reference (4 bytes with compressed references, 8 without)
+ * and a long (8 bytes). With a load factor between 0.375 and 0.75 that is 16 to 32 bytes per key
+ * with compressed references, plus the key String itself. A {@link java.util.LinkedHashMap} takes
+ * around 60 bytes per key for the entry, the boxed Long and its table slot.
+ * <p>
+ * Single writer, lock free readers: writes must be serialized by the caller while {@link #get}
+ * can run concurrently with them. A value is published before its key and a resized table is
+ * published as a whole, so readers never see a key without its value.
+ */
+final class TimestampIndex {
+
+    static final long NO_TIMESTAMP = -1L;
+
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table {
+        final AtomicReferenceArray<String> keys;
+        final AtomicLongArray values;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicReferenceArray<>(capacity);
+            values = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table mTable;
+    private volatile int mSize;
+    private int mResizeThreshold;
+
+    TimestampIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Lock free and allocation free.
+     *
+     * @return the timestamp for key or {@link #NO_TIMESTAMP} if there's none.
+     */
+    long get(String key) {
+        final Table table = mTable;
+        int slot = spread(key.hashCode()) & table.mask;
+        String current;
+        while ((current = table.keys.get(slot)) != null) {
+            if (current.equals(key)) {
+                return table.values.get(slot);
+            }
+            slot = (slot + 1) & table.mask;
+        }
+        return NO_TIMESTAMP;
+    }
+
+    void put(String key, long timestamp) {
+        final Table table = mTable;
+        final int slot = findSlot(table, key);
+        if (table.keys.get(slot) != null) {
+            table.values.set(slot, timestamp);
+            return;
+        }
+
+        table.values.set(slot, timestamp);
+        table.keys.set(slot, key);
+        mSize = mSize + 1;
+        if (mSize > mResizeThreshold) {
+            resize(table.keys.length() * 2);
+        }
+    }
+
+    /**
+     * @return a copy of this index, used to write entries while the index keeps changing.
+     */
+    TimestampIndex copy() {
+        final Table table = mTable;
+        final TimestampIndex copy = new TimestampIndex(0);
+        copy.allocate(table.keys.length());
+        for (int i = 0; i < table.keys.length(); i++) {
+            copy.mTable.keys.set(i, table.keys.get(i));
+            copy.mTable.values.set(i, table.values.get(i));
+        }
+        copy.mSize = mSize;
+        return copy;
+    }
+
+    // Slots are used to iterate entries, empty slots return a null key.
+    int capacity() {
+        return mTable.keys.length();
+    }
+
+    String keyAt(int slot) {
+        return mTable.keys.get(slot);
+    }
+
+    long valueAt(int slot) {
+        return mTable.values.get(slot);
+    }
+
+    // Returns the slot holding key or the empty slot where it should be inserted.
+    private static int findSlot(Table table, String key) {
+        int slot = spread(key.hashCode()) & table.mask;
+        String current;
+        while ((current = table.keys.get(slot)) != null && !current.equals(key)) {
+            slot = (slot + 1) & table.mask;
+        }
+        return slot;
+    }
+
+    // New table is filled before being published.
+    private void resize(int capacity) {
+        final Table oldTable = mTable;
+        final Table table = new Table(capacity);
+        for (int i = 0; i < oldTable.keys.length(); i++) {
+            final String key = oldTable.keys.get(i);
+            if (key != null) {
+                final int slot = findSlot(table, key);
+                table.values.set(slot, oldTable.values.get(i));
+                table.keys.set(slot, key);
+            }
+        }
+        mTable = table;
+        mResizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+    }
+
+    private void allocate(int capacity) {
+        mTable = new Table(capacity);
+        mResizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+    }
+
+    // String hash codes are poorly distributed in the lower bits, mix in the higher ones.
+    private static int spread(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -2,6 +2,8 @@ package com.creations.livebox;
 
 import android.os.Looper;
 
+import com.creations.livebox.config.Config;
+import com.creations.livebox.datasources.disk.DiskLruConfig;
 import com.creations.livebox.datasources.disk.DiskLruDataSource;
 import com.creations.livebox_common.util.Bag;
 import com.creations.serializer_gson.LiveboxGsonSerializer;
@@ -18,10 +20,15 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.File;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import static com.creations.livebox.LiveboxTest.RES_FILE;
 import static com.creations.livebox.LiveboxTest.testConfig;
+import static java.util.Collections.singletonList;
 
 /**
  * Unit tests for {@link DiskLruDataSource}
@@ -69,4 +76,89 @@ public class DiskLruDataSourceTest {
         Assert.assertEquals(bag, newBagOpt);
     }
 
+    @Test
+    public void partitionsKeepTheirOwnEntries() {
+        final File partitionDir = new File(RES_FILE, "lru_partition");
+        Livebox.init(new Config(
+                testConfig.getDiskLruConfig(),
+                testConfig.getPersistentConfig(),
+                testConfig.getSerializer(),
+                RES_FILE,
+                true,
+                testConfig.getMemoryLruConfig(),
+                testConfig.getJournalFormat(),
+                Collections.singletonMap("metadata", new DiskLruConfig(partitionDir, 1024 * 1024))
+        ));
+
+        final Type type = new TypeToken<Bag<String>>() {
+        }.getType();
+        final DiskLruDataSource<Bag<String>, Bag<String>> defaultSource = DiskLruDataSource.create(
+                LiveboxGsonSerializer.create(new Gson()), type
+        );
+        final DiskLruDataSource<Bag<String>, Bag<String>> partitionSource = DiskLruDataSource.create(
+                LiveboxGsonSerializer.create(new Gson()), type, "metadata"
+        );
+
+        final String key = "2000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        partitionSource.save(key, bag);
+
+        Assert.assertEquals(bag, partitionSource.read(key));
+        Assert.assertNull(defaultSource.read(key));
+        partitionSource.clear(key);
+
+        Livebox.init(testConfig);
+    }
+
+    @Test
+    public void sameDirKeepsItsCache() {
+        Livebox.init(testConfig);
+        final Type type = new TypeToken<Bag<String>>() {
+        }.getType();
+        final DiskLruDataSource<Bag<String>, Bag<String>> oldSource = DiskLruDataSource.create(
+                LiveboxGsonSerializer.create(new Gson()), type
+        );
+        final String key = "3000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        oldSource.save(key, bag);
+
+        // A new config for the same dir shares the open cache instead of opening it again
+        Livebox.init(new Config(
+                new DiskLruConfig(RES_FILE, 10 * 1024 * 1024),
+                testConfig.getPersistentConfig(),
+                testConfig.getSerializer(),
+                RES_FILE,
+                true
+        ));
+        final DiskLruDataSource<Bag<String>, Bag<String>> newSource = DiskLruDataSource.create(
+                LiveboxGsonSerializer.create(new Gson()), type
+        );
+
+        Assert.assertEquals(bag, newSource.read(key));
+        Assert.assertEquals(bag, oldSource.read(key));
+        newSource.clear(key);
+
+        Livebox.init(testConfig);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPartitionIsRejected() {
+        Livebox.init(testConfig);
+        DiskLruDataSource.create(LiveboxGsonSerializer.create(new Gson()), Bag.class, "unknown");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void partitionsCannotShareDir() {
+        new Config(
+                testConfig.getDiskLruConfig(),
+                testConfig.getPersistentConfig(),
+                testConfig.getSerializer(),
+                RES_FILE,
+                true,
+                testConfig.getMemoryLruConfig(),
+                testConfig.getJournalFormat(),
+                Collections.singletonMap("metadata", new DiskLruConfig(RES_FILE, 1024 * 1024))
+        );
+    }
+
 }
@@ -1,6 +1,13 @@
 package com.creations.livebox;
 
+import com.creations.livebox.config.Config;
+import com.creations.livebox.datasources.EntryMetadata;
+import com.creations.livebox.datasources.disk.Codec;
+import com.creations.livebox.datasources.disk.Codecs;
+import com.creations.livebox.datasources.disk.Compression;
+import com.creations.livebox.datasources.disk.DiskPersistentConfig;
 import com.creations.livebox.datasources.disk.DiskPersistentDataSource;
+import com.creations.livebox.datasources.disk.EntryHeader;
 import com.creations.livebox_common.serializers.Serializer;
 import com.creations.livebox_common.util.Bag;
 import com.creations.livebox_common.util.Logger;
@@ -13,14 +20,21 @@ import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 
+import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
 
+import static com.creations.livebox.LiveboxTest.RES_FILE;
 import static com.creations.livebox.LiveboxTest.testConfig;
+import static java.util.Collections.singletonList;
 
 /**
  * Unit tests for {@link DiskPersistentDataSourceTest}
@@ -85,4 +99,255 @@ public class DiskPersistentDataSourceTest {
 
     }
 
+    @Test
+    public void saveKeepsTimestampInHeader() {
+        final String key = "3000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = createBagSource();
+
+        dataSource.save(key, bag, 1234L);
+
+        final EntryMetadata metadata = dataSource.readMetadata(key);
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(1234L, metadata.getTimestamp());
+        Assert.assertEquals(EntryHeader.VERSION, metadata.getVersion());
+        Assert.assertEquals(bag, dataSource.read(key));
+        dataSource.clear(key);
+    }
+
+    /**
+     * Entries saved before headers were added are still read.
+     */
+    @Test
+    public void readEntryWithoutHeader() throws IOException {
+        final String key = "4000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = createBagSource();
+
+        try (BufferedSink sink = Okio.buffer(Okio.sink(entryFile(key)))) {
+            sink.writeUtf8(new Gson().toJson(bag));
+        }
+
+        final EntryMetadata metadata = dataSource.readMetadata(key);
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(EntryHeader.LEGACY_VERSION, metadata.getVersion());
+        Assert.assertEquals(bag, dataSource.read(key));
+        dataSource.clear(key);
+    }
+
+    @Test
+    public void corruptedEntryIsNotRead() throws IOException {
+        final String key = "5000";
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = createBagSource();
+        dataSource.save(key, new Bag<>("100", singletonList("one")));
+
+        // Flip a payload byte
+        try (RandomAccessFile file = new RandomAccessFile(entryFile(key), "rw")) {
+            file.seek(EntryHeader.HEADER_SIZE + 1);
+            final int value = file.read();
+            file.seek(EntryHeader.HEADER_SIZE + 1);
+            file.write(value ^ 0xff);
+        }
+
+        Assert.assertNull(dataSource.read(key));
+
+        // Moved aside, not read again
+        Assert.assertFalse(entryFile(key).exists());
+        Assert.assertTrue(quarantinedFile(key).delete());
+    }
+
+    /**
+     * A process killed mid write used to leave a truncated entry, found from its header and size.
+     */
+    @Test
+    public void truncatedEntryIsQuarantined() throws IOException {
+        final String key = "5001";
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = createBagSource();
+        dataSource.save(key, new Bag<>("100", singletonList("one")));
+
+        try (RandomAccessFile file = new RandomAccessFile(entryFile(key), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        Assert.assertNull(dataSource.readMetadata(key));
+        Assert.assertFalse(entryFile(key).exists());
+        Assert.assertNull(dataSource.read(key));
+        Assert.assertTrue(quarantinedFile(key).delete());
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @Test
+    public void saveAndReadWithPackStore() {
+        Livebox.init(new Config(
+                testConfig.getDiskLruConfig(),
+                new DiskPersistentConfig(RES_FILE, DiskPersistentConfig.Store.PACK),
+                testConfig.getSerializer(),
+                RES_FILE,
+                true
+        ));
+
+        final String key = "6000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = createBagSource();
+
+        dataSource.save(key, bag, 1234L);
+        Assert.assertFalse(entryFile(key).exists());
+        Assert.assertEquals(bag, dataSource.read(key));
+        Assert.assertEquals(1234L, dataSource.readMetadata(key).getTimestamp());
+
+        dataSource.clear(key);
+        Assert.assertNull(dataSource.read(key));
+        Assert.assertNull(dataSource.readMetadata(key));
+
+        // Switch back to a file per key
+        Livebox.init(testConfig);
+        final File packDir = new File(RES_FILE, "pack");
+        for (File file : packDir.listFiles()) {
+            file.delete();
+        }
+        packDir.delete();
+    }
+
+    @Test
+    public void saveAndReadMapped() {
+        Livebox.init(new Config(
+                testConfig.getDiskLruConfig(),
+                new DiskPersistentConfig(RES_FILE, DiskPersistentConfig.Store.FILES, 0),
+                testConfig.getSerializer(),
+                RES_FILE,
+                true
+        ));
+
+        final String key = "7000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = createBagSource();
+
+        dataSource.save(key, bag);
+        Assert.assertEquals(bag, dataSource.read(key));
+
+        // Replaced while mapped
+        dataSource.save(key, new Bag<>("200", singletonList("two")));
+        Assert.assertEquals("200", dataSource.read(key).getId());
+        dataSource.clear(key);
+
+        Livebox.init(testConfig);
+    }
+
+    @Test
+    public void saveAndReadCompressed() {
+        final TypeToken<List<Bag<String>>> bagType = new TypeToken<List<Bag<String>>>() {
+        };
+        final Serializer serializer = LiveboxGsonSerializer.create(new Gson());
+        final List<Bag<String>> bags = serializer.deserialize(
+                Okio.buffer(Okio.source(getClass().getClassLoader().getResourceAsStream("bigJson.json"))),
+                bagType.getType()
+        );
+        final String key = "8000";
+        final DiskPersistentDataSource<List<Bag<String>>, List<Bag<String>>> dataSource
+                = DiskPersistentDataSource.create(serializer, bagType.getType());
+
+        dataSource.save(key, bags);
+        final long rawSize = entryFile(key).length();
+
+        for (Codec codec : new Codec[]{Codecs.DEFLATE, Codecs.GZIP, Codecs.LZ4}) {
+            initWithCompression(new Compression(codec));
+            // Saved before compression was enabled
+            Assert.assertEquals(bags, dataSource.read(key));
+
+            dataSource.save(key, bags);
+            Assert.assertTrue(entryFile(key).length() < rawSize);
+            Assert.assertEquals(bags, dataSource.read(key));
+
+            // Codec is kept in the entry, read after compression is disabled
+            Livebox.init(testConfig);
+            Assert.assertEquals(bags, dataSource.read(key));
+            dataSource.save(key, bags);
+        }
+        dataSource.clear(key);
+    }
+
+    @Test
+    public void smallEntryIsNotCompressed() throws IOException {
+        initWithCompression(new Compression(Codecs.DEFLATE));
+
+        final String key = "9000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = createBagSource();
+        dataSource.save(key, bag);
+
+        try (BufferedSource source = Okio.buffer(Okio.source(entryFile(key)))) {
+            Assert.assertEquals(Codecs.NONE.getId(), EntryHeader.Companion.read(source).getCodecId());
+        }
+        Assert.assertEquals(bag, dataSource.read(key));
+        dataSource.clear(key);
+
+        Livebox.init(testConfig);
+    }
+
+    /**
+     * Serializers implementing only {@link Serializer} are written and read, mapped or not,
+     * through its methods.
+     */
+    @Test
+    public void saveAndReadWithPlainSerializer() {
+        final Serializer gson = LiveboxGsonSerializer.create(new Gson());
+        final Serializer plain = new Serializer() {
+            @Override
+            public <T> BufferedSource serialize(T input, Type type) {
+                return gson.serialize(input, type);
+            }
+
+            @Override
+            public <T> T deserialize(BufferedSource source, Type type) {
+                return gson.deserialize(source, type);
+            }
+        };
+        final String key = "10000";
+        final Bag<String> bag = new Bag<>("100", singletonList("one"));
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> dataSource = DiskPersistentDataSource.create(
+                plain, new TypeToken<Bag<String>>() {
+                }.getType()
+        );
+
+        dataSource.save(key, bag);
+        Assert.assertEquals(bag, dataSource.read(key));
+
+        // Every entry is mapped
+        Livebox.init(new Config(
+                testConfig.getDiskLruConfig(),
+                new DiskPersistentConfig(RES_FILE, DiskPersistentConfig.Store.FILES, 0),
+                testConfig.getSerializer(),
+                RES_FILE,
+                true
+        ));
+        Assert.assertEquals(bag, dataSource.read(key));
+        dataSource.clear(key);
+
+        Livebox.init(testConfig);
+    }
+
+    private static void initWithCompression(Compression compression) {
+        Livebox.init(new Config(
+                testConfig.getDiskLruConfig(),
+                new DiskPersistentConfig(RES_FILE, DiskPersistentConfig.Store.FILES, DiskPersistentConfig.NO_MMAP, compression),
+                testConfig.getSerializer(),
+                RES_FILE,
+                true
+        ));
+    }
+
+    private DiskPersistentDataSource<Bag<String>, Bag<String>> createBagSource() {
+        TypeToken<Bag<String>> typeToken = new TypeToken<Bag<String>>() {
+        };
+        return DiskPersistentDataSource.create(LiveboxGsonSerializer.create(new Gson()), typeToken.getType());
+    }
+
+    private static File entryFile(String key) {
+        return new File(RES_FILE, key + "_livebox.json");
+    }
+
+    private static File quarantinedFile(String key) {
+        return new File(new File(RES_FILE, "quarantine"), key + "_livebox.json");
+    }
+
 }
@@ -0,0 +1,159 @@
+package com.creations.livebox;
+
+import com.creations.livebox.datasources.disk.FileStore;
+import com.creations.livebox_common.util.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link FileStore}
+ */
+public class FileStoreTest {
+
+    private final static File STORE_DIR = new File("src/test/resources/file_store_test");
+    private final static Executor DIRECT = Runnable::run;
+
+    @Before
+    public void setup() {
+        Logger.disable();
+        deleteStoreDir();
+    }
+
+    @Test
+    public void shardedEntriesAreRead() throws IOException {
+        final FileStore store = new FileStore(STORE_DIR, 16, DIRECT);
+        for (int i = 0; i < 100; i++) {
+            store.write("key" + i, entry("value" + i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, store.open("key" + i).readUtf8());
+        }
+        assertFalse(new File(STORE_DIR, "key0_livebox.json").exists());
+        assertTrue(shards() > 1 && shards() <= 16);
+
+        store.remove("key0");
+        assertNull(store.open("key0"));
+    }
+
+    @Test
+    public void flatEntriesAreMovedToShards() throws IOException {
+        final FileStore flat = new FileStore(STORE_DIR);
+        flat.write("key1", entry("one"));
+        flat.write("key2", entry("two"));
+
+        final FileStore sharded = new FileStore(STORE_DIR, 16, DIRECT);
+        assertFalse(new File(STORE_DIR, "key1_livebox.json").exists());
+        assertEquals("one", sharded.open("key1").readUtf8());
+        assertEquals("two", sharded.open("key2").readUtf8());
+
+        // And back
+        final FileStore reverted = new FileStore(STORE_DIR, FileStore.FLAT, DIRECT);
+        assertTrue(new File(STORE_DIR, "key1_livebox.json").exists());
+        assertEquals("one", reverted.open("key1").readUtf8());
+        assertEquals(0, shards());
+    }
+
+    @Test
+    public void entriesAreReadWhileMoving() throws IOException {
+        final FileStore flat = new FileStore(STORE_DIR);
+        flat.write("key1", entry("one"));
+        flat.write("key2", entry("two"));
+
+        final List<Runnable> tasks = new ArrayList<>();
+        final FileStore sharded = new FileStore(STORE_DIR, 16, tasks::add);
+        assertEquals(1, tasks.size());
+
+        // Not moved yet
+        assertEquals("one", sharded.open("key1").readUtf8());
+        sharded.write("key2", entry("new"));
+        sharded.remove("key1");
+
+        tasks.get(0).run();
+        assertNull(sharded.open("key1"));
+        assertEquals("new", sharded.open("key2").readUtf8());
+    }
+
+    @Test
+    public void staleTempFilesAreDeleted() throws IOException {
+        assertTrue(STORE_DIR.mkdirs());
+        final File stale = new File(STORE_DIR, "key1_livebox.json123.tmp");
+        assertTrue(stale.createNewFile());
+        assertTrue(stale.setLastModified(System.currentTimeMillis() - 60 * 1000));
+
+        final FileStore store = new FileStore(STORE_DIR, FileStore.FLAT, DIRECT);
+        assertFalse(stale.exists());
+
+        store.write("key1", entry("one"));
+        assertEquals(1, STORE_DIR.list().length);
+    }
+
+    @Test
+    public void streamedEntryStartIsWrittenOver() throws IOException {
+        final FileStore store = new FileStore(STORE_DIR);
+        assertTrue(store.write("key1", sink -> {
+            write(sink, "....value");
+            return ByteString.encodeUtf8("key1");
+        }));
+        assertEquals("key1value", store.open("key1").readUtf8());
+
+        // A failed write keeps the current entry and leaves no temp file
+        assertFalse(store.write("key1", sink -> {
+            write(sink, "partial");
+            return null;
+        }));
+        assertEquals("key1value", store.open("key1").readUtf8());
+        assertEquals(1, STORE_DIR.list().length);
+    }
+
+    private static void write(BufferedSink sink, String value) {
+        try {
+            sink.writeUtf8(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Buffer entry(String value) {
+        return new Buffer().writeUtf8(value);
+    }
+
+    private static int shards() {
+        final File[] dirs = STORE_DIR.listFiles(File::isDirectory);
+        return dirs == null ? 0 : dirs.length;
+    }
+
+    @After
+    public void deleteStoreDir() {
+        delete(STORE_DIR);
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
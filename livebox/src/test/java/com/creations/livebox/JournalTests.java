@@ -8,12 +8,17 @@ import org.junit.After;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
@@ -40,6 +45,20 @@ public class JournalTests {
         assertEquals(60L, (long) journal.read("key3").get());
     }
 
+    @Test
+    public void readTimestamp() {
+
+        for (Journal.Format format : Journal.Format.values()) {
+            Journal journal = Journal.create(RES_FILE, format);
+            journal.save("key1", 10);
+            journal.save("key1", 5);
+
+            assertEquals(10L, journal.readTimestamp("key1"));
+            assertEquals(Journal.NO_TIMESTAMP, journal.readTimestamp("key2"));
+            journal.close();
+        }
+    }
+
     @Test
     public void shouldEliminateDuplicates() {
 
@@ -50,6 +69,7 @@ public class JournalTests {
         journal.save("key3", 30);
         journal.save("key4", 40);
         journal.save("key3", 60);
+        journal.flush();
 
         // Recreate
         journal = Journal.create(RES_FILE);
@@ -60,23 +80,25 @@ public class JournalTests {
     }
 
     @Test
-    public void writeAndReadToJournalWithLimit() {
+    public void timestampsAreNotEvicted() {
 
-        final int limit = 300;
-        Journal journal = Journal.create(RES_FILE, limit);
+        final int nrKeys = 10000;
+        final Executor directExecutor = Runnable::run;
+        Journal journal = Journal.create(RES_FILE, directExecutor, 300);
 
-        // Write to file
-        for (int i = 0; i <= limit + 100; i++) {
+        // Write to file, well past the expected size
+        for (int i = 0; i < nrKeys; i++) {
             journal.save("key" + i, i);
         }
 
         // Recreate
-        journal = Journal.create(RES_FILE, limit);
+        journal = Journal.create(RES_FILE, directExecutor, 300);
 
-        assertEquals(journal.size(), limit);
-        assertTrue(journal.read("key0").isAbsent());
-        assertTrue(journal.read("key101").isPresent());
-        assertTrue(journal.read("key400").isPresent());
+        assertEquals(nrKeys, journal.size());
+        assertEquals(0L, (long) journal.read("key0").get());
+        assertEquals(5000L, (long) journal.read("key5000").get());
+        assertEquals(9999L, (long) journal.read("key9999").get());
+        assertTrue(journal.read("key10000").isAbsent());
     }
 
     @Test
@@ -92,6 +114,7 @@ public class JournalTests {
                 j++;
             }
         }
+        journal.flush();
 
         // Recreate
         journal = Journal.create(RES_FILE, limit);
@@ -101,6 +124,73 @@ public class JournalTests {
         assertEquals((long) journal.read("key149").get(), 299L);
     }
 
+    @Test
+    public void compactsOutdatedRecords() throws IOException {
+
+        final Executor directExecutor = Runnable::run;
+        Journal journal = Journal.create(RES_FILE, directExecutor, 300);
+
+        // Each save is committed, so every update appends a record
+        for (int i = 0; i < 5000; i++) {
+            journal.save("key" + (i % 10), i);
+        }
+        journal.flush();
+
+        final File journalFile = new File(RES_FILE, "journal_livebox.txt");
+        int records = 0;
+        try (BufferedSource source = Okio.buffer(Okio.source(journalFile))) {
+            while (source.readUtf8Line() != null) {
+                records++;
+            }
+        }
+        assertTrue(records < 1000);
+
+        // Recreate
+        journal = Journal.create(RES_FILE, directExecutor, 300);
+        assertEquals(10, journal.size());
+        assertEquals(4999L, (long) journal.read("key9").get());
+    }
+
+    @Test
+    public void binaryJournalIsReadBack() {
+
+        final int nrKeys = 10000;
+        Journal journal = Journal.create(RES_FILE, Journal.Format.BINARY);
+
+        // Grows the table several times
+        for (int i = 0; i < nrKeys; i++) {
+            journal.save("key" + i, i);
+        }
+        journal.save("key1", 100);
+        journal.save("key2", 1);
+        journal.close();
+
+        // Recreate
+        journal = Journal.create(RES_FILE, Journal.Format.BINARY);
+
+        assertEquals(nrKeys, journal.size());
+        assertEquals(0L, (long) journal.read("key0").get());
+        assertEquals(100L, (long) journal.read("key1").get());
+        assertEquals(2L, (long) journal.read("key2").get());
+        assertEquals(9999L, (long) journal.read("key9999").get());
+        assertTrue(journal.read("key10000").isAbsent());
+    }
+
+    @Test
+    public void invalidBinaryJournalIsRecreated() throws IOException {
+
+        final File journalFile = new File(RES_FILE, "journal_livebox.bin");
+        try (BufferedSink sink = Okio.buffer(Okio.sink(journalFile))) {
+            sink.writeUtf8("key1:10");
+        }
+
+        Journal journal = Journal.create(RES_FILE, Journal.Format.BINARY);
+        assertEquals(0, journal.size());
+
+        journal.save("key1", 20);
+        assertEquals(20L, (long) journal.read("key1").get());
+    }
+
     @Test
     public void multiThreadAccess() throws InterruptedException {
 
@@ -2,13 +2,20 @@ package com.creations.livebox;
 
 import com.creations.livebox.config.Config;
 import com.creations.livebox.converters.Converter;
+import com.creations.livebox.datasources.EntryMetadata;
+import com.creations.livebox.datasources.MetadataReader;
 import com.creations.livebox.datasources.disk.DiskLruConfig;
 import com.creations.livebox.datasources.disk.DiskPersistentConfig;
+import com.creations.livebox.datasources.disk.DiskPersistentDataSource;
+import com.creations.livebox.datasources.disk.EntryHeader;
 import com.creations.livebox.datasources.factory.LiveboxDataSourceFactory.Sources;
 import com.creations.livebox.datasources.fetcher.Fetcher;
+import com.creations.livebox.datasources.fetcher.FileFetcher;
+import com.creations.livebox.util.CountingSerializer;
 import com.creations.livebox.util.FakeSource;
 import com.creations.livebox.util.OnOffValidator;
 import com.creations.livebox.validator.AgeValidator;
+import com.creations.livebox.validator.MetadataValidator;
 import com.creations.livebox.validator.Validator;
 import com.creations.livebox_common.util.Bag;
 import com.creations.livebox_common.util.Logger;
@@ -22,19 +29,31 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
 import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
 import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+import okio.BufferedSource;
+import okio.Okio;
 
 import static com.creations.livebox.validator.AgeValidator.minutes;
 import static com.creations.serializer_gson.UtilsKt.fromType;
 import static java.util.Collections.singletonList;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -51,7 +70,7 @@ public class LiveboxTest {
     public InstantTaskExecutorRule rule = new InstantTaskExecutorRule();
 
     private final static String TEST_KEY = "test_key";
-    private final static File RES_FILE = new File("src/test/resources");
+    final static File RES_FILE = new File("src/test/resources");
     private final static Type TYPE = fromType(new TypeToken<Bag<String>>() {
     });
 
@@ -373,6 +392,125 @@ public class LiveboxTest {
         assertEquals(1, nrInvocations[0]);
     }
 
+    /**
+     * Subscribe to the same key from many threads at the same time.
+     * All subscribers should share a single {@link Fetcher#fetch()} call.
+     */
+    @Test
+    public void testConcurrentSubscribersShareOneFetch() throws InterruptedException {
+        Livebox.init(testConfig);
+
+        final int nrSubscribers = 32;
+        final Bag<String> bag = new Bag<>("1", singletonList("1"));
+        final AtomicInteger nrInvocations = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // Fetch blocks until every subscriber is subscribed
+        final Fetcher<Bag<String>> bagFetcher = () -> Observable.fromCallable(() -> {
+            nrInvocations.incrementAndGet();
+            release.await();
+            return bag;
+        }).subscribeOn(Schedulers.io());
+
+        final Livebox<Bag<String>, Bag<String>> bagBox = new Box<Bag<String>, Bag<String>>(TYPE)
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .ignoreCache(true)
+                .build();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch subscribed = new CountDownLatch(nrSubscribers);
+        final List<TestObserver<Bag<String>>> observers = new ArrayList<>();
+        for (int i = 0; i < nrSubscribers; i++) {
+            final TestObserver<Bag<String>> observer = new TestObserver<>();
+            observers.add(observer);
+            new Thread(() -> {
+                try {
+                    start.await();
+                    bagBox.asObservable().subscribe(observer);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    subscribed.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        subscribed.await();
+        release.countDown();
+
+        for (TestObserver<Bag<String>> observer : observers) {
+            observer.awaitTerminalEvent(5, TimeUnit.SECONDS);
+            assertTestObserver(observer, bag);
+        }
+
+        assertEquals(1, nrInvocations.get());
+    }
+
+    /**
+     * A request that errors must not be shared with requests made after it.
+     */
+    @Test
+    public void testFailedRequestIsNotShared() {
+        Livebox.init(testConfig);
+
+        final Fetcher<Bag<String>> failingFetcher = () -> Observable.error(new RuntimeException());
+        new Box<Bag<String>, Bag<String>>(TYPE)
+                .withKey(TEST_KEY)
+                .fetch(failingFetcher)
+                .ignoreCache(true)
+                .build()
+                .asObservable()
+                .test()
+                .assertError(RuntimeException.class);
+
+        // New request for the same key uses its own fetcher
+        final Bag<String> bag = new Bag<>("1", singletonList("1"));
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+        final TestObserver<Bag<String>> bagTestObserver = new Box<Bag<String>, Bag<String>>(TYPE)
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .ignoreCache(true)
+                .build()
+                .asObservable()
+                .test();
+
+        assertTestObserver(bagTestObserver, bag);
+        fetcherCalled(bagFetcher, 1);
+    }
+
+    /**
+     * A request disposed before completing must not be shared with requests made after it.
+     */
+    @Test
+    public void testDisposedRequestIsNotShared() {
+        Livebox.init(testConfig);
+
+        final Fetcher<Bag<String>> neverFetcher = Observable::never;
+        final Disposable disposable = new Box<Bag<String>, Bag<String>>(TYPE)
+                .withKey(TEST_KEY)
+                .fetch(neverFetcher)
+                .ignoreCache(true)
+                .build()
+                .asObservable()
+                .subscribe();
+        disposable.dispose();
+
+        final Bag<String> bag = new Bag<>("1", singletonList("1"));
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+        final TestObserver<Bag<String>> bagTestObserver = new Box<Bag<String>, Bag<String>>(TYPE)
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .ignoreCache(true)
+                .build()
+                .asObservable()
+                .test();
+
+        assertTestObserver(bagTestObserver, bag);
+        fetcherCalled(bagFetcher, 1);
+    }
+
     @Test
     public void testCustomSourceWithMultipleConverters() {
         Livebox.init(testConfig);
@@ -438,6 +576,391 @@ public class LiveboxTest {
         fetcherCalled(bagFetcher, 2);
     }
 
+    /**
+     * Data found in the second source is copied to the first one when promotion is enabled.
+     */
+    @Test
+    public void testPromoteLocalHits() {
+        Livebox.init(testConfig);
+
+        // Run promotion synchronously
+        RxJavaPlugins.setIoSchedulerHandler(scheduler -> Schedulers.trampoline());
+
+        final Bag<String> bag = new Bag<>("1", new ArrayList<>());
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+
+        final FakeSource<Bag<String>, Bag<String>> fastSource = typedFakeSource();
+        final FakeSource<Bag<String>, Bag<String>> slowSource = typedFakeSource();
+        slowSource.save(TEST_KEY, bag);
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(fastSource, (Validator<Bag<String>>) (key, item) -> true)
+                .addSource(slowSource, (Validator<Bag<String>>) (key, item) -> true)
+                .promoteLocalHits(true)
+                .build();
+
+        final TestObserver<Bag<String>> bagTestObserver = new TestObserver<>();
+        bagBox.asObservable().subscribe(bagTestObserver);
+
+        assertTestObserver(bagTestObserver, bag);
+        assertEquals(bag, fastSource.read(TEST_KEY));
+        fetcherCalled(bagFetcher, 0);
+    }
+
+    @Test
+    public void testDoNotPromoteLocalHitsByDefault() {
+        Livebox.init(testConfig);
+        RxJavaPlugins.setIoSchedulerHandler(scheduler -> Schedulers.trampoline());
+
+        final Bag<String> bag = new Bag<>("1", new ArrayList<>());
+        final FakeSource<Bag<String>, Bag<String>> fastSource = typedFakeSource();
+        final FakeSource<Bag<String>, Bag<String>> slowSource = typedFakeSource();
+        slowSource.save(TEST_KEY, bag);
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        builder.withKey(TEST_KEY)
+                .fetch(mockFetcher(bag))
+                .addSource(fastSource, (Validator<Bag<String>>) (key, item) -> true)
+                .addSource(slowSource, (Validator<Bag<String>>) (key, item) -> true)
+                .build()
+                .asObservable()
+                .blockingFirst();
+
+        assertNull(fastSource.read(TEST_KEY));
+    }
+
+    private static FakeSource<Bag<String>, Bag<String>> typedFakeSource() {
+        return new FakeSource<Bag<String>, Bag<String>>() {
+            @NonNull
+            public Type getType() {
+                return TYPE;
+            }
+        };
+    }
+
+    /**
+     * Expired data within the stale window is returned right away and refreshed in background,
+     * concurrent stale reads share a single background refresh.
+     */
+    @Test
+    public void testStaleWhileRevalidate() throws InterruptedException {
+        Livebox.init(testConfig);
+
+        final Bag<String> bag = new Bag<>("1", new ArrayList<>());
+        final AtomicInteger nrInvocations = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch refreshing = new CountDownLatch(1);
+
+        // Background refreshes block until released
+        final Fetcher<Bag<String>> bagFetcher = () -> Observable.fromCallable(() -> {
+            if (nrInvocations.incrementAndGet() > 1) {
+                refreshing.countDown();
+                release.await();
+            }
+            return bag;
+        });
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                // Expired as soon as it is saved, no need to wait for the clock
+                .addSource(typedFakeSource(), AgeValidator.create(-TimeUnit.SECONDS.toMillis(1)))
+                .staleWhileRevalidate(1, TimeUnit.HOURS)
+                .build();
+
+        // No local data, fetch it
+        bagBox.asObservable().test().assertValue(bag);
+
+        // Counts down when a background refresh task returns, the one joining the blocked
+        // refresh returns first.
+        final CountDownLatch joined = new CountDownLatch(1);
+        RxJavaPlugins.setScheduleHandler(task -> () -> {
+            task.run();
+            joined.countDown();
+        });
+
+        // Both requests return stale data and complete without waiting for the refresh
+        bagBox.asObservable().test().assertValue(bag).assertComplete();
+        bagBox.asObservable().test().assertValue(bag).assertComplete();
+
+        // The refresh has started and the other request joined it instead of fetching again
+        assertTrue(refreshing.await(5, TimeUnit.SECONDS));
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        assertEquals(2, nrInvocations.get());
+        release.countDown();
+    }
+
+    /**
+     * Entries rejected by their metadata must not be read.
+     */
+    @Test
+    public void testInvalidMetadataSkipsRead() {
+        Livebox.init(testConfig);
+
+        final Bag<String> bag = new Bag<>("1", new ArrayList<>());
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+
+        final MetadataFakeSource source = new MetadataFakeSource();
+        source.save(TEST_KEY, bag);
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(source, new MetadataOnOffValidator(false))
+                .build();
+
+        final TestObserver<Bag<String>> bagTestObserver = new TestObserver<>();
+        bagBox.asObservable().subscribe(bagTestObserver);
+
+        assertTestObserver(bagTestObserver, bag);
+        assertEquals(0, source.reads);
+        fetcherCalled(bagFetcher, 1);
+    }
+
+    /**
+     * Entries accepted by their metadata are read without validating the item again.
+     */
+    @Test
+    public void testValidMetadataReadsEntry() {
+        Livebox.init(testConfig);
+
+        final Bag<String> bag = new Bag<>("1", new ArrayList<>());
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+
+        final MetadataFakeSource source = new MetadataFakeSource();
+        source.save(TEST_KEY, bag);
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(source, new MetadataOnOffValidator(true))
+                .build();
+
+        final TestObserver<Bag<String>> bagTestObserver = new TestObserver<>();
+        bagBox.asObservable().subscribe(bagTestObserver);
+
+        assertTestObserver(bagTestObserver, bag);
+        assertEquals(1, source.reads);
+        fetcherCalled(bagFetcher, 0);
+    }
+
+    @Test
+    public void testAgeValidatorWithEntryMetadata() {
+        Livebox.init(testConfig);
+
+        final String key = "age_metadata_key";
+        final long now = System.currentTimeMillis();
+        final AgeValidator<Bag<String>> validator = minutes(1);
+
+        assertTrue(validator.validateMetadata(key, new EntryMetadata(now, 10, 1)));
+        assertFalse(validator.validateMetadata(key, new EntryMetadata(now - TimeUnit.HOURS.toMillis(1), 10, 1)));
+
+        // No timestamp available, entry is valid
+        assertTrue(validator.validateMetadata(key, new EntryMetadata(EntryMetadata.UNKNOWN, 10, 1)));
+    }
+
+    private static class MetadataFakeSource extends FakeSource<Bag<String>, Bag<String>> implements MetadataReader {
+        private int reads = 0;
+
+        @Override
+        public Bag<String> read(@NonNull String key) {
+            reads++;
+            return super.read(key);
+        }
+
+        @Override
+        public EntryMetadata readMetadata(@NonNull String key) {
+            return new EntryMetadata(System.currentTimeMillis(), EntryMetadata.UNKNOWN, 1);
+        }
+    }
+
+    // Item validation must never be called when metadata is available.
+    private static class MetadataOnOffValidator implements Validator<Bag<String>>, MetadataValidator {
+        private final boolean on;
+
+        MetadataOnOffValidator(boolean on) {
+            this.on = on;
+        }
+
+        @Override
+        public boolean validate(@NonNull String key, Bag<String> item) {
+            throw new IllegalStateException("Should validate metadata only");
+        }
+
+        @Override
+        public boolean validateMetadata(@NonNull String key, @NonNull EntryMetadata metadata) {
+            return on;
+        }
+    }
+
+    /**
+     * Fetched data is serialized once for all sources sharing the same serializer and type.
+     */
+    @Test
+    public void testSerializeOnceForAllSources() {
+        Livebox.init(testConfig);
+
+        final Bag<String> bag = new Bag<>("1", singletonList("1"));
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+        final CountingSerializer serializer = new CountingSerializer(LiveboxGsonSerializer.create());
+
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> firstSource =
+                DiskPersistentDataSource.create(serializer, TYPE);
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> secondSource =
+                DiskPersistentDataSource.create(serializer, TYPE);
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(firstSource, (Validator<Bag<String>>) (key, item) -> false)
+                .addSource(secondSource, (Validator<Bag<String>>) (key, item) -> false)
+                .build();
+
+        bagBox.asObservable().test().assertValue(bag);
+
+        assertEquals(1, serializer.getSerializeCount());
+        assertEquals(bag, firstSource.read(TEST_KEY));
+        assertEquals(bag, secondSource.read(TEST_KEY));
+    }
+
+    /**
+     * A source added with its own serializer stores data with it, not with the configured one.
+     */
+    @Test
+    public void testSourceWithOwnSerializer() {
+        Livebox.init(testConfig);
+
+        final Bag<String> bag = new Bag<>("1", singletonList("1"));
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+        final CountingSerializer serializer = new CountingSerializer(LiveboxGsonSerializer.create());
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(Sources.DISK_PERSISTENT, serializer, (Validator<Bag<String>>) (key, item) -> false)
+                .build();
+
+        bagBox.asObservable().test().assertValue(bag);
+
+        assertEquals(1, serializer.getSerializeCount());
+        assertEquals(bag, DiskPersistentDataSource.create(serializer, TYPE).read(TEST_KEY));
+        // Entry was written by a different serializer
+        assertNull(DiskPersistentDataSource.create(testConfig.getSerializer(), TYPE).read(TEST_KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMemorySourceWithOwnSerializerIsRejected() {
+        Livebox.init(testConfig);
+        new Box<Bag<String>, Bag<String>>(TYPE)
+                .addSource(Sources.MEMORY_LRU, LiveboxGsonSerializer.create(), (Validator<Bag<String>>) (key, item) -> true);
+    }
+
+    /**
+     * Bytes fetched by a {@link com.creations.livebox.datasources.fetcher.RawFetcher} are saved
+     * as they are in sources using the same serializer, data is never serialized.
+     */
+    @Test
+    public void testRawFetcherSavesFetchedBytes() throws IOException {
+        Livebox.init(testConfig);
+
+        final File bagFile = new File(RES_FILE, "bag.json");
+        final CountingSerializer serializer = new CountingSerializer(LiveboxGsonSerializer.create());
+        final Fetcher<Bag<String>> bagFetcher = FileFetcher.create(bagFile, TYPE, serializer);
+
+        final DiskPersistentDataSource<Bag<String>, Bag<String>> source =
+                DiskPersistentDataSource.create(serializer, TYPE);
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(source, (Validator<Bag<String>>) (key, item) -> false)
+                .build();
+
+        bagBox.asObservable().test().assertValue(bag -> bag.getId().equals("1"));
+
+        assertEquals(0, serializer.getSerializeCount());
+        final File savedFile = new File(RES_FILE, TEST_KEY + "_livebox.json");
+        final BufferedSource saved = Okio.buffer(Okio.source(savedFile));
+        saved.skip(EntryHeader.HEADER_SIZE);
+        assertEquals(Okio.buffer(Okio.source(bagFile)).readUtf8(), saved.readUtf8());
+    }
+
+    /**
+     * Fetched data is emitted before being saved, reads made while data is waiting to be saved
+     * return it and writes for the same key are coalesced.
+     */
+    @Test
+    public void testWriteBehind() throws InterruptedException {
+        Livebox.init(testConfig);
+
+        final AtomicInteger nrInvocations = new AtomicInteger();
+        final Fetcher<Bag<String>> bagFetcher = () -> Observable.fromCallable(
+                () -> new Bag<String>(String.valueOf(nrInvocations.incrementAndGet()), new ArrayList<>())
+        );
+
+        // Source blocks on save until released
+        final AtomicInteger nrSaves = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final FakeSource<Bag<String>, Bag<String>> source = new FakeSource<Bag<String>, Bag<String>>() {
+            @Override
+            public void save(@NonNull String key, Bag<String> input) {
+                nrSaves.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.save(key, input);
+            }
+
+            @NonNull
+            public Type getType() {
+                return TYPE;
+            }
+        };
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(source, (Validator<Bag<String>>) (key, item) -> true)
+                .refresh(true)
+                .writeBehind(true)
+                .build();
+
+        // Data is emitted while the source is still blocked saving it
+        bagBox.asObservable().test().assertValue(new Bag<>("1", new ArrayList<>()));
+        assertNull(source.read(TEST_KEY));
+
+        // Pending data is returned first then refreshed
+        //noinspection unchecked
+        bagBox.asObservable().test().assertValues(
+                new Bag<>("1", new ArrayList<>()),
+                new Bag<>("2", new ArrayList<>())
+        );
+        //noinspection unchecked
+        bagBox.asObservable().test().assertValues(
+                new Bag<>("2", new ArrayList<>()),
+                new Bag<>("3", new ArrayList<>())
+        );
+
+        release.countDown();
+        assertTrue(Livebox.awaitPendingWrites(5, TimeUnit.SECONDS));
+
+        // Second write was replaced by the third one
+        assertEquals(2, nrSaves.get());
+        assertEquals(new Bag<>("3", new ArrayList<>()), source.read(TEST_KEY));
+    }
+
     @Test
     public void testInitWithNullConfig() {
         // Initialize livebox with null values.
@@ -471,9 +994,44 @@ public class LiveboxTest {
         fetcherCalled(bagFetcher, 2);
     }
 
+    /**
+     * Requests made before an async init is done wait for it, then run as usual.
+     */
+    @Test
+    public void testInitAsync() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final TestObserver<Void> readyObserver = Livebox.initAsync(testConfig, tasks::add).test();
+
+        final Bag<String> bag = new Bag<>("1", new ArrayList<>());
+        final Fetcher<Bag<String>> bagFetcher = mockFetcher(bag);
+
+        final Box<Bag<String>, Bag<String>> builder = new Box<>(TYPE);
+        Livebox<Bag<String>, Bag<String>> bagBox = builder
+                .withKey(TEST_KEY)
+                .fetch(bagFetcher)
+                .addSource(Sources.DISK_PERSISTENT, (Validator<Bag<String>>) (key, item) -> false)
+                .build();
+
+        final TestObserver<Bag<String>> bagTestObserver = bagBox.asObservable().test();
+        bagTestObserver.assertNoValues();
+        readyObserver.assertNotComplete();
+        fetcherCalled(bagFetcher, 0);
+
+        for (Runnable task : tasks) {
+            task.run();
+        }
+
+        readyObserver.assertComplete();
+        assertTestObserver(bagTestObserver, bag);
+        fetcherCalled(bagFetcher, 1);
+        assertTrue(Livebox.Companion.getJournal() != null);
+        assertTrue(Livebox.getStartupMetrics() != null);
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @After
     public void tearDown() {
+        RxJavaPlugins.reset();
         if (RES_FILE.exists()) {
             File[] files = RES_FILE.listFiles((dir, name) -> name.startsWith(TEST_KEY));
             for (File file : files) {
@@ -0,0 +1,172 @@
+package com.creations.livebox;
+
+import com.creations.livebox.datasources.memory.MemoryLruConfig;
+import com.creations.livebox.datasources.memory.MemoryLruDataSource;
+import com.creations.livebox.datasources.memory.Weighers;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.creations.livebox.LiveboxTest.testConfig;
+import static java.util.Collections.singletonList;
+
+/**
+ * Unit tests for {@link MemoryLruDataSource}
+ */
+public class MemoryLruDataSourceTest {
+
+    private final static Type TYPE = new TypeToken<Bag<String>>() {
+    }.getType();
+
+    @Before
+    public void setup() {
+        Logger.disable();
+        Livebox.init(testConfig);
+    }
+
+    @After
+    public void tearDown() {
+        MemoryLruDataSource.config = testConfig.getMemoryLruConfig();
+    }
+
+    private static Bag<String> bag(String id) {
+        final List<String> values = new ArrayList<>();
+        values.add("one");
+        values.add("two");
+        values.add("three");
+        return new Bag<>(id, values);
+    }
+
+    @Test
+    public void saveAndRead() {
+
+        // Setup
+        final Bag<String> bag = bag("100");
+        final MemoryLruDataSource<Bag<String>, Bag<String>> dataSource = MemoryLruDataSource.create(TYPE);
+
+        // Exercise
+        dataSource.save("1000", bag);
+
+        // Verify, same instance is returned without any serialization
+        Assert.assertSame(bag, dataSource.read("1000"));
+
+        dataSource.clear("1000");
+        Assert.assertNull(dataSource.read("1000"));
+    }
+
+    @Test
+    public void readWithDifferentType() {
+        final MemoryLruDataSource<Bag<String>, Bag<String>> dataSource = MemoryLruDataSource.create(TYPE);
+        final MemoryLruDataSource<Bag<String>, Bag<String>> otherDataSource = MemoryLruDataSource.create(Bag.class);
+
+        dataSource.save("1000", bag("100"));
+
+        Assert.assertNull(otherDataSource.read("1000"));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedByEntryCount() {
+        MemoryLruDataSource.config = new MemoryLruConfig(2, Weighers.entryCount());
+        final MemoryLruDataSource<Bag<String>, Bag<String>> dataSource = MemoryLruDataSource.create(TYPE);
+
+        dataSource.save("1", bag("1"));
+        dataSource.save("2", bag("2"));
+
+        // Access first entry, second one becomes the least recently used
+        dataSource.read("1");
+        dataSource.save("3", bag("3"));
+
+        Assert.assertNotNull(dataSource.read("1"));
+        Assert.assertNull(dataSource.read("2"));
+        Assert.assertNotNull(dataSource.read("3"));
+    }
+
+    @Test
+    public void evictByEstimatedBytes() {
+        final long bagSize = Weighers.estimatedBytes().weigh("1", bag("1"));
+        Assert.assertTrue(bagSize > 0);
+
+        // Bigger bags weigh more
+        final Bag<String> bigBag = new Bag<>("2", singletonList(new String(new char[1024])));
+        Assert.assertTrue(Weighers.estimatedBytes().weigh("2", bigBag) > bagSize + 2048);
+
+        // Room for two small bags only
+        MemoryLruDataSource.config = new MemoryLruConfig(bagSize * 2, Weighers.estimatedBytes());
+        final MemoryLruDataSource<Bag<String>, Bag<String>> dataSource = MemoryLruDataSource.create(TYPE);
+
+        dataSource.save("1", bag("1"));
+        dataSource.save("2", bag("2"));
+        dataSource.save("3", bag("3"));
+        Assert.assertNull(dataSource.read("1"));
+        Assert.assertNotNull(dataSource.read("2"));
+        Assert.assertNotNull(dataSource.read("3"));
+
+        // Heavier than the whole cache, never stored
+        dataSource.save("4", bigBag);
+        Assert.assertNull(dataSource.read("4"));
+    }
+
+    @Test
+    public void estimatedBytesWeighCollectionContents() {
+        final String big = new String(new char[512 * 1024]);
+
+        final List<String> list = new ArrayList<>();
+        list.add(big);
+        Assert.assertTrue(Weighers.estimatedBytes().weigh("1", list) > 1024 * 1024);
+        Assert.assertTrue(Weighers.estimatedBytes().weigh("2", singletonList(big)) > 1024 * 1024);
+
+        final Map<String, String> map = new HashMap<>();
+        map.put("1", big);
+        Assert.assertTrue(Weighers.estimatedBytes().weigh("3", map) > 1024 * 1024);
+    }
+
+    @Test
+    public void concurrentSaveAndRead() throws InterruptedException {
+        MemoryLruDataSource.config = new MemoryLruConfig(50, Weighers.entryCount());
+        final MemoryLruDataSource<Bag<String>, Bag<String>> dataSource = MemoryLruDataSource.create(TYPE);
+
+        final int nrThreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(nrThreads);
+        final AtomicInteger errors = new AtomicInteger();
+
+        for (int i = 0; i < nrThreads; i++) {
+            final int thread = i;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 1000; j++) {
+                        final String key = String.valueOf((thread * j) % 100);
+                        dataSource.save(key, bag(key));
+                        final Bag<String> bag = dataSource.read(key);
+                        if (bag != null && !bag.getId().equals(key)) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        Assert.assertEquals(0, errors.get());
+    }
+}
@@ -0,0 +1,159 @@
+package com.creations.livebox;
+
+import com.creations.livebox.datasources.disk.PackStore;
+import com.creations.livebox_common.util.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+
+import okio.Buffer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Unit tests for {@link PackStore}
+ */
+public class PackStoreTest {
+
+    private final static File PACK_DIR = new File("src/test/resources/pack_test");
+    private final static Executor DIRECT = Runnable::run;
+
+    @Before
+    public void setup() {
+        Logger.disable();
+        deletePackDir();
+    }
+
+    @Test
+    public void entriesAreReadAfterReopen() throws IOException {
+        PackStore store = new PackStore(PACK_DIR, DIRECT);
+        store.write("key1", entry("one"));
+        store.write("key2", entry("two"));
+        store.write("key1", entry("three"));
+        store.close();
+
+        store = new PackStore(PACK_DIR, DIRECT);
+        assertEquals("three", store.open("key1").readUtf8());
+        assertEquals("two", store.open("key2").readUtf8());
+        assertEquals("th", store.peek("key1", 2).readUtf8());
+        assertNull(store.open("key3"));
+        store.close();
+    }
+
+    @Test
+    public void removedEntriesStayRemoved() throws IOException {
+        PackStore store = new PackStore(PACK_DIR, DIRECT);
+        store.write("key1", entry("one"));
+        store.write("key2", entry("two"));
+        store.remove("key1");
+        assertNull(store.open("key1"));
+        store.close();
+
+        store = new PackStore(PACK_DIR, DIRECT);
+        assertNull(store.open("key1"));
+        assertEquals("two", store.open("key2").readUtf8());
+        store.close();
+    }
+
+    @Test
+    public void compactsReplacedEntries() throws IOException {
+        final String value = repeat('a', 64 * 1024);
+
+        PackStore store = new PackStore(PACK_DIR, DIRECT);
+        store.write("removed", entry("removed"));
+        for (int i = 0; i < 200; i++) {
+            store.write("key" + (i % 4), entry(i + value));
+        }
+        store.remove("removed");
+
+        // 12.8MB were written, only the last segments are left
+        assertTrue(segments() <= 2);
+        store.close();
+
+        store = new PackStore(PACK_DIR, DIRECT);
+        for (int i = 196; i < 200; i++) {
+            assertEquals(i + value, store.open("key" + (i % 4)).readUtf8());
+        }
+        assertNull(store.open("removed"));
+        store.close();
+    }
+
+    @Test
+    public void truncatedRecordIsDropped() throws IOException {
+        PackStore store = new PackStore(PACK_DIR, DIRECT);
+        store.write("key1", entry("one"));
+        store.write("key2", entry("two"));
+        store.close();
+
+        final File segment = new File(PACK_DIR, "segment_0.pack");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        store = new PackStore(PACK_DIR, DIRECT);
+        assertEquals("one", store.open("key1").readUtf8());
+        assertNull(store.open("key2"));
+
+        // Appended after the last good record
+        store.write("key3", entry("three"));
+        store.close();
+
+        store = new PackStore(PACK_DIR, DIRECT);
+        assertEquals("three", store.open("key3").readUtf8());
+        store.close();
+    }
+
+    @Test
+    public void tooLongKeyIsRejected() throws IOException {
+        PackStore store = new PackStore(PACK_DIR, DIRECT);
+        try {
+            store.write(repeat('k', Short.MAX_VALUE + 1), entry("one"));
+            fail();
+        } catch (IOException expected) {
+        }
+        store.write("key1", entry("one"));
+        store.close();
+
+        store = new PackStore(PACK_DIR, DIRECT);
+        assertEquals("one", store.open("key1").readUtf8());
+        store.close();
+    }
+
+    private static Buffer entry(String value) {
+        return new Buffer().writeUtf8(value);
+    }
+
+    private static String repeat(char c, int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static int segments() {
+        final String[] names = PACK_DIR.list((dir, name) -> name.endsWith(".pack"));
+        return names == null ? 0 : names.length;
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @After
+    public void deletePackDir() {
+        final File[] files = PACK_DIR.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        PACK_DIR.delete();
+    }
+}
@@ -8,7 +8,10 @@ import org.junit.runners.Suite
         DiskLruDataSourceTest::class,
         DiskPersistentDataSourceTest::class,
         FileFetcherTests::class,
+        FileStoreTest::class,
         JournalTests::class,
-        LiveboxTest::class
+        LiveboxTest::class,
+        MemoryLruDataSourceTest::class,
+        PackStoreTest::class
 )
 class LiveboxTestSuite
\ No newline at end of file
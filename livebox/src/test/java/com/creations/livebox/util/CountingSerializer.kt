@@ -0,0 +1,33 @@
+package com.creations.livebox.util
+
+import com.creations.livebox_common.serializers.Serializer
+import com.creations.livebox_common.serializers.StreamingSerializer
+import com.creations.livebox_common.serializers.deserializeFrom
+import com.creations.livebox_common.serializers.serializeTo
+import okio.BufferedSink
+import okio.BufferedSource
+import java.lang.reflect.Type
+import java.nio.ByteBuffer
+
+/**
+ * Serializer used on testing, counts calls to [serialize] and delegates to [mSerializer].
+ */
+class CountingSerializer(private val mSerializer: Serializer) : StreamingSerializer {
+
+    var serializeCount = 0
+        private set
+
+    override fun <T> serialize(input: T, type: Type): BufferedSource? {
+        serializeCount++
+        return mSerializer.serialize(input, type)
+    }
+
+    override fun <T> serialize(input: T, type: Type, sink: BufferedSink): Boolean {
+        serializeCount++
+        return mSerializer.serializeTo(input, type, sink)
+    }
+
+    override fun <T> deserialize(source: BufferedSource, type: Type): T? = mSerializer.deserialize(source, type)
+
+    override fun <T> deserialize(buffer: ByteBuffer, type: Type): T? = mSerializer.deserializeFrom(buffer, type)
+}
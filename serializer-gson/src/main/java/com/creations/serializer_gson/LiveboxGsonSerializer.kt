@@ -1,48 +1,104 @@
 package com.creations.serializer_gson
 
-import com.creations.livebox_common.serializers.Serializer
-import com.creations.livebox_common.util.bufferedSource
-import com.creations.livebox_common.util.readerInputStreamUtf8
+import com.creations.livebox_common.serializers.IdentifiedSerializer
+import com.creations.livebox_common.serializers.StreamingSerializer
+import com.creations.livebox_common.util.ByteBufferInputStream
 import com.google.gson.Gson
 import com.google.gson.JsonIOException
-import com.google.gson.JsonSyntaxException
+import com.google.gson.JsonParseException
+import com.google.gson.TypeAdapter
+import com.google.gson.reflect.TypeToken
 import com.google.gson.stream.JsonReader
+import okio.Buffer
+import okio.BufferedSink
 import okio.BufferedSource
+import java.io.EOFException
+import java.io.IOException
 import java.io.InputStreamReader
+import java.io.OutputStreamWriter
+import java.io.Reader
 import java.lang.reflect.Type
+import java.nio.ByteBuffer
+import java.nio.charset.Charset
+import java.util.concurrent.ConcurrentHashMap
 
 
 /**
  * @author Sérgio Serra
  * sergioserra99@gmail.com
+ *
+ * A [TypeAdapter] is looked up once for each [Type] and reused. Json is read and written as UTF-8,
+ * whatever the platform charset.
  */
-class LiveboxGsonSerializer private constructor(private val mGson: Gson) : Serializer {
+class LiveboxGsonSerializer private constructor(private val mGson: Gson) : StreamingSerializer, IdentifiedSerializer {
+
+    private val mAdapters = ConcurrentHashMap<Type, TypeAdapter<*>>()
+
+    override val serializerId: Int
+        get() = IdentifiedSerializer.GSON
 
     override fun <T> serialize(input: T, type: Type): BufferedSource? {
+        val buffer = Buffer()
+        return if (serialize(input, type, buffer)) buffer else null
+    }
+
+    // Writes json straight to the sink, no intermediate String is created.
+    override fun <T> serialize(input: T, type: Type, sink: BufferedSink): Boolean {
         try {
-            return bufferedSource(readerInputStreamUtf8(mGson.toJson(input, type)))
+            val writer = mGson.newJsonWriter(OutputStreamWriter(sink.outputStream(), UTF_8))
+            // Same as Gson.toJson
+            writer.isLenient = true
+            adapter<T>(type).write(writer, input)
+            writer.flush()
+            return true
         } catch (e: JsonIOException) {
             e.printStackTrace()
+        } catch (e: IOException) {
+            e.printStackTrace()
         }
-        return null
+        return false
     }
 
-    override fun <T> deserialize(source: BufferedSource, type: Type): T? {
+    override fun <T> deserialize(source: BufferedSource, type: Type): T? =
+            read(InputStreamReader(source.inputStream(), UTF_8), type)
+
+    // Chars are decoded straight from the buffer, bytes are not copied to a BufferedSource first.
+    override fun <T> deserialize(buffer: ByteBuffer, type: Type): T? =
+            read(InputStreamReader(ByteBufferInputStream(buffer), UTF_8), type)
+
+    // Same errors as Gson.fromJson.
+    private fun <T> read(reader: Reader, type: Type): T? {
+        val jsonReader = JsonReader(reader)
+        jsonReader.isLenient = true
         try {
-            return mGson.fromJson<T>(JsonReader(InputStreamReader(source.inputStream())), type)
-        } catch (e: JsonIOException) {
+            try {
+                jsonReader.peek()
+            } catch (e: EOFException) {
+                // Empty document
+                return null
+            }
+            return adapter<T>(type).read(jsonReader)
+        } catch (e: IOException) {
             e.printStackTrace()
-        } catch (e: JsonSyntaxException) {
+        } catch (e: IllegalStateException) {
+            e.printStackTrace()
+        } catch (e: JsonParseException) {
             e.printStackTrace()
         }
         return null
     }
 
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> adapter(type: Type): TypeAdapter<T> =
+            mAdapters.getOrPut(type) { mGson.getAdapter(TypeToken.get(type)) } as TypeAdapter<T>
+
     companion object {
+        private val UTF_8 = Charset.forName("UTF-8")
+
         @JvmStatic
-        fun create(gson: Gson = Gson()): Serializer = LiveboxGsonSerializer(gson)
+        fun create(gson: Gson = Gson()): StreamingSerializer = LiveboxGsonSerializer(gson)
 
         @JvmStatic
-        fun create(): Serializer = create(Gson())
+        fun create(): StreamingSerializer = create(Gson())
     }
 }
@@ -1,6 +1,6 @@
 package com.creations.serializer_gson;
 
-import com.creations.livebox_common.serializers.Serializer;
+import com.creations.livebox_common.serializers.StreamingSerializer;
 import com.creations.livebox_common.util.Bag;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
@@ -11,9 +11,12 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
+import okio.Buffer;
 import okio.BufferedSource;
 import okio.Okio;
 
@@ -33,7 +36,7 @@ public class LiveboxGsonSerializerTest {
         final Bag<String> bag = new Bag<>("100", values);
 
         // Exercise
-        final Serializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
+        final StreamingSerializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
         final Bag newBag = serializer.deserialize(serializer.serialize(bag, Bag.class), Bag.class);
 
         // Verify
@@ -51,7 +54,7 @@ public class LiveboxGsonSerializerTest {
         // Exercise
         TypeToken<List<Bag<String>>> bagType = new TypeToken<List<Bag<String>>>() {
         };
-        final Serializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
+        final StreamingSerializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
         final List<Bag<String>> bags = serializer.deserialize(source, bagType.getType());
 
         final BufferedSource serializeSource = serializer.serialize(bags, bagType.getType());
@@ -60,4 +63,68 @@ public class LiveboxGsonSerializerTest {
         Assert.assertEquals(600, bags.size());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void serializeToSink() {
+
+        // Setup
+        final List<String> values = new ArrayList<>();
+        values.add("one");
+        final Bag<String> bag = new Bag<>("100", values);
+        final Buffer sink = new Buffer();
+
+        // Exercise
+        final StreamingSerializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
+        final boolean written = serializer.serialize(bag, Bag.class, sink);
+
+        // Verify
+        Assert.assertTrue(written);
+        Assert.assertEquals(new Gson().toJson(bag), sink.readUtf8());
+    }
+
+    @Test
+    public void deserializeFromByteBuffer() {
+
+        // Setup
+        final List<String> values = new ArrayList<>();
+        values.add("one");
+        final Bag<String> bag = new Bag<>("100", values);
+        final byte[] bytes = new Gson().toJson(bag).getBytes(Charset.forName("UTF-8"));
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+
+        // Exercise
+        final StreamingSerializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
+        final Bag<String> newBag = serializer.deserialize(buffer, new TypeToken<Bag<String>>() {
+        }.getType());
+
+        // Verify
+        Assert.assertEquals(bag, newBag);
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void deserializeUtf8() {
+
+        // Setup
+        final List<String> values = new ArrayList<>();
+        values.add("\u00e7\u00e3o \u20ac \ud83d\udce6");
+        final Bag<String> bag = new Bag<>("100", values);
+        final Buffer source = new Buffer().writeUtf8(new Gson().toJson(bag));
+
+        // Exercise
+        final StreamingSerializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
+        final Bag<String> newBag = serializer.deserialize(source, new TypeToken<Bag<String>>() {
+        }.getType());
+
+        // Verify
+        Assert.assertEquals(bag, newBag);
+    }
+
+    @Test
+    public void deserializeEmptyAndMalformed() {
+        final StreamingSerializer serializer = LiveboxGsonSerializer.Companion.create(new Gson());
+        Assert.assertNull(serializer.deserialize(new Buffer(), Bag.class));
+        Assert.assertNull(serializer.deserialize(new Buffer().writeUtf8("{\"id\":"), Bag.class));
+    }
+
+}
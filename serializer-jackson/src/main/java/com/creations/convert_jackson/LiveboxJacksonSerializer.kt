@@ -1,35 +1,49 @@
 package com.creations.convert_jackson
 
-import com.creations.livebox_common.serializers.Serializer
+import com.creations.livebox_common.serializers.IdentifiedSerializer
+import com.creations.livebox_common.serializers.StreamingSerializer
 import com.creations.livebox_common.util.Logger
-import com.creations.livebox_common.util.bufferedSource
-import com.fasterxml.jackson.core.JsonProcessingException
-import com.fasterxml.jackson.databind.JavaType
+import com.fasterxml.jackson.core.JsonGenerator
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectReader
+import com.fasterxml.jackson.databind.ObjectWriter
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream
+import okio.Buffer
+import okio.BufferedSink
 import okio.BufferedSource
-import java.io.ByteArrayInputStream
 import java.io.IOException
+import java.io.InputStream
 import java.lang.reflect.Type
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * @author Sérgio Serra on 25/08/2018.
  * Criations
  * sergioserra99@gmail.com
+ *
+ * Readers and writers are built once for each [Type] and reused, they are immutable and thread safe.
+ * [mObjectMapper] must not be configured after it is passed to [create], cached readers and writers
+ * would not see the changes.
  */
-class LiveboxJacksonSerializer private constructor(private val mObjectMapper: ObjectMapper) : Serializer {
-
-    override fun <T> deserialize(source: BufferedSource, type: Type): T? {
-         try {
-            if (Class::class.java.isAssignableFrom(type.javaClass)) {
-                Logger.d(TAG, "Deserialize for class: $type")
-
-                @Suppress("UNCHECKED_CAST")
-                return mObjectMapper.readValue(source.inputStream(), type as Class<T>)
-            } else if (JavaType::class.java.isAssignableFrom(type.javaClass)) {
-                Logger.d(TAG, "Deserialize for type: $type")
-                return mObjectMapper.readValue<T>(source.inputStream(), type as JavaType)
-            }
+class LiveboxJacksonSerializer private constructor(private val mObjectMapper: ObjectMapper) : StreamingSerializer, IdentifiedSerializer {
+
+    private val mReaders = ConcurrentHashMap<Type, ObjectReader>()
+    private val mWriters = ConcurrentHashMap<Type, ObjectWriter>()
+
+    override val serializerId: Int
+        get() = IdentifiedSerializer.JACKSON
+
+    override fun <T> deserialize(source: BufferedSource, type: Type): T? = read(source.inputStream(), type)
 
+    // Parses straight from the buffer, bytes are not copied to a BufferedSource first.
+    override fun <T> deserialize(buffer: ByteBuffer, type: Type): T? =
+            read(ByteBufferBackedInputStream(buffer.duplicate()), type)
+
+    private fun <T> read(input: InputStream, type: Type): T? {
+        try {
+            Logger.d(TAG, "Deserialize for type: $type")
+            return reader(type).readValue<T>(input)
         } catch (e: IOException) {
             e.printStackTrace()
         }
@@ -38,24 +52,45 @@ class LiveboxJacksonSerializer private constructor(private val mObjectMapper: Ob
     }
 
     override fun <T> serialize(input: T, type: Type): BufferedSource? {
+        val buffer = Buffer()
+        if (serialize(input, type, buffer) && buffer.size() > 0) {
+            return buffer
+        }
+        return null
+    }
+
+    // Generates json straight into the sink, no intermediate byte array is created.
+    override fun <T> serialize(input: T, type: Type, sink: BufferedSink): Boolean {
         try {
             Logger.d(TAG, "Serialize for type: $type")
-            mObjectMapper.writeValueAsBytes(input)?.apply {
-                if (isNotEmpty()) {
-                    return bufferedSource(ByteArrayInputStream(this))
-                }
+            mObjectMapper.factory.createGenerator(sink.outputStream()).use {
+                // Sink is owned by the caller
+                it.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                writer(type).writeValue(it, input)
             }
-        } catch (e: JsonProcessingException) {
+            sink.flush()
+            return true
+        } catch (e: IOException) {
             e.printStackTrace()
         }
 
-        return null
+        return false
+    }
+
+    // Class, JavaType or any other Type, resolved once.
+    private fun reader(type: Type): ObjectReader = mReaders.getOrPut(type) {
+        mObjectMapper.readerFor(mObjectMapper.typeFactory.constructType(type))
+    }
+
+    // Values are written as the declared type, their serializer is not looked up from the runtime class.
+    private fun writer(type: Type): ObjectWriter = mWriters.getOrPut(type) {
+        mObjectMapper.writerFor(mObjectMapper.typeFactory.constructType(type))
     }
 
     companion object {
         private const val TAG = "LiveboxJacksonSerialize"
         @JvmStatic
-        fun create(objectMapper: ObjectMapper = ObjectMapper()): Serializer = LiveboxJacksonSerializer(objectMapper)
+        fun create(objectMapper: ObjectMapper = ObjectMapper()): StreamingSerializer = LiveboxJacksonSerializer(objectMapper)
     }
 
 }
@@ -1,6 +1,6 @@
 package com.creations.convert_jackson;
 
-import com.creations.livebox_common.serializers.Serializer;
+import com.creations.livebox_common.serializers.StreamingSerializer;
 import com.creations.livebox_common.util.Bag;
 import com.creations.livebox_common.util.Logger;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -15,9 +15,11 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import okio.Buffer;
 import okio.BufferedSource;
 import okio.Okio;
 
@@ -46,7 +48,7 @@ public class LiveboxJacksonSerializerTest {
         final Bag<String> bag = new Bag<>("100", values);
 
         // Exercise
-        final Serializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
         TypeReference<Bag<String>> bagType = new TypeReference<Bag<String>>() {
         };
         JavaType type = TypeFactory.defaultInstance().constructType(bagType);
@@ -69,7 +71,7 @@ public class LiveboxJacksonSerializerTest {
         };
         JavaType type = TypeFactory.defaultInstance().constructType(bagType);
 
-        final Serializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
         final List<Bag<String>> bags = serializer.deserialize(source, type);
 
         final BufferedSource serializeSource = serializer.serialize(bags, type);
@@ -80,7 +82,7 @@ public class LiveboxJacksonSerializerTest {
 
     @Test
     public void serializeDeserializeClassType() {
-        final Serializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
         final BufferedSource source = serializer.serialize("Some string", String.class);
         final String results = serializer.deserialize(source, String.class);
         Assert.assertEquals("Some string", results);
@@ -89,11 +91,77 @@ public class LiveboxJacksonSerializerTest {
     @Test
     public void serializeDeserializeJavaType() {
         final Bag<String> aBag = new Bag<>("1", new ArrayList<>());
-        final Serializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
         final Type type = fromRef(new TypeReference<Bag<String>>() {
         });
         final BufferedSource source = serializer.serialize(aBag, type);
         final Bag<String> result = serializer.deserialize(source, type);
         Assert.assertEquals(aBag, result);
     }
+
+    @Test
+    public void serializeToSink() throws IOException {
+        final Bag<String> aBag = new Bag<>("1", new ArrayList<>());
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+        final Type type = fromRef(new TypeReference<Bag<String>>() {
+        });
+        final Buffer sink = new Buffer();
+        Assert.assertTrue(serializer.serialize(aBag, type, sink));
+        Assert.assertEquals(new ObjectMapper().writeValueAsString(aBag), sink.readUtf8());
+    }
+
+    @Test
+    public void deserializeFromByteBuffer() {
+
+        // Setup
+        final List<String> values = new ArrayList<>();
+        values.add("one");
+        final Bag<String> bag = new Bag<>("100", values);
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+        final byte[] bytes = ((Buffer) serializer.serialize(bag, Bag.class)).readByteArray();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+
+        // Exercise
+        JavaType type = TypeFactory.defaultInstance().constructType(new TypeReference<Bag<String>>() {
+        });
+        final Bag newBag = serializer.deserialize(buffer, type);
+
+        // Verify
+        Assert.assertEquals(bag, newBag);
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void serializeDeserializeReflectType() {
+        final List<Bag<String>> bags = new ArrayList<>();
+        bags.add(new Bag<>("1", new ArrayList<>()));
+        bags.add(new Bag<>("2", new ArrayList<>()));
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+
+        // Neither a Class nor a JavaType
+        final Type type = new TypeReference<List<Bag<String>>>() {
+        }.getType();
+        for (int i = 0; i < 2; i++) {
+            final List<Bag<String>> result = serializer.deserialize(serializer.serialize(bags, type), type);
+            Assert.assertEquals(bags, result);
+        }
+    }
+
+    @Test
+    public void serializeAsDeclaredType() {
+        final StreamingSerializer serializer = LiveboxJacksonSerializer.create(new ObjectMapper());
+        final Buffer sink = new Buffer();
+        Assert.assertTrue(serializer.serialize(new Dog(), Animal.class, sink));
+        Assert.assertEquals("{\"name\":\"animal\"}", sink.readUtf8());
+    }
+
+    public static class Animal {
+        public String name = "animal";
+    }
+
+    public static class Dog extends Animal {
+        public String breed = "dog";
+    }
+
 }
@@ -0,0 +1,40 @@
+package com.creations.serializer_smile
+
+import com.creations.convert_jackson.LiveboxJacksonSerializer
+import com.creations.livebox_common.serializers.IdentifiedSerializer
+import com.creations.livebox_common.serializers.StreamingSerializer
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.smile.SmileFactory
+
+/**
+ * Serializes to Smile, Jackson's binary json format. Smaller and faster to parse than json text,
+ * meant for local sources while fetchers keep using json.
+ *
+ * It has its own [serializerId], so entries written by [LiveboxJacksonSerializer] are never read
+ * by it and the other way round.
+ */
+class LiveboxSmileSerializer private constructor(
+        private val mDelegate: StreamingSerializer
+) : StreamingSerializer by mDelegate, IdentifiedSerializer {
+
+    override val serializerId: Int
+        get() = IdentifiedSerializer.SMILE
+
+    companion object {
+        /**
+         * @param objectMapper must be created with a [SmileFactory].
+         */
+        @JvmStatic
+        fun create(objectMapper: ObjectMapper): StreamingSerializer {
+            if (objectMapper.factory !is SmileFactory) {
+                throw IllegalArgumentException("ObjectMapper must be created with a SmileFactory")
+            }
+            return LiveboxSmileSerializer(LiveboxJacksonSerializer.create(objectMapper))
+        }
+
+        @JvmStatic
+        fun create(): StreamingSerializer = create(ObjectMapper(SmileFactory()))
+    }
+
+    override fun toString() = "LiveboxSmileSerializer"
+}
@@ -0,0 +1,96 @@
+package com.creations.serializer_smile;
+
+import com.creations.convert_jackson.LiveboxJacksonSerializer;
+import com.creations.livebox_common.serializers.IdentifiedSerializer;
+import com.creations.livebox_common.serializers.StreamingSerializer;
+import com.creations.livebox_common.util.Bag;
+import com.creations.livebox_common.util.Logger;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+
+/**
+ * Unit tests for {@link LiveboxSmileSerializer}
+ */
+public class LiveboxSmileSerializerTest {
+
+    private final static Type BAGS_TYPE = new TypeReference<List<Bag<String>>>() {
+    }.getType();
+
+    @Before
+    public void setup() {
+        Logger.disable();
+    }
+
+    @Test
+    public void serializeDeserializeBag() {
+        final List<String> values = new ArrayList<>();
+        values.add("one");
+        values.add("two");
+        final Bag<String> bag = new Bag<>("100", values);
+        final Type type = new TypeReference<Bag<String>>() {
+        }.getType();
+
+        final StreamingSerializer serializer = LiveboxSmileSerializer.create();
+        final Bag<String> newBag = serializer.deserialize(serializer.serialize(bag, type), type);
+
+        Assert.assertEquals(bag, newBag);
+    }
+
+    @Test
+    public void smallerThanJson() {
+        final List<Bag<String>> bags = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final List<String> values = new ArrayList<>();
+            values.add("one");
+            values.add("two");
+            bags.add(new Bag<>(String.valueOf(i), values));
+        }
+        final StreamingSerializer json = LiveboxJacksonSerializer.create(new ObjectMapper());
+
+        final StreamingSerializer serializer = LiveboxSmileSerializer.create();
+        final Buffer smile = new Buffer();
+        Assert.assertTrue(serializer.serialize(bags, BAGS_TYPE, smile));
+        final Buffer text = new Buffer();
+        Assert.assertTrue(json.serialize(bags, BAGS_TYPE, text));
+
+        Assert.assertTrue(smile.size() < text.size());
+        Assert.assertEquals(bags, serializer.deserialize(smile, BAGS_TYPE));
+    }
+
+    @Test
+    public void deserializeFromByteBuffer() {
+        final List<Bag<String>> bags = new ArrayList<>();
+        bags.add(new Bag<>("1", new ArrayList<>()));
+        final StreamingSerializer serializer = LiveboxSmileSerializer.create();
+        final byte[] bytes = ((Buffer) serializer.serialize(bags, BAGS_TYPE)).readByteArray();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+
+        Assert.assertEquals(bags, serializer.deserialize(buffer, BAGS_TYPE));
+    }
+
+    @Test
+    public void idDiffersFromJackson() {
+        final IdentifiedSerializer smile = (IdentifiedSerializer) LiveboxSmileSerializer.create();
+        final IdentifiedSerializer json = (IdentifiedSerializer) LiveboxJacksonSerializer.create(new ObjectMapper());
+
+        Assert.assertEquals(IdentifiedSerializer.SMILE, smile.getSerializerId());
+        Assert.assertNotEquals(json.getSerializerId(), smile.getSerializerId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jsonMapperIsRejected() {
+        LiveboxSmileSerializer.create(new ObjectMapper());
+    }
+}